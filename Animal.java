@@ -1,53 +1,261 @@
-import java.io.Serializable;
-import java.util.List;
-import java.util.Iterator;
-import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * What the species in the simulation have in common. Animals are not
+ * objects of their own: their state lives in a Population, and the methods
+ * here act on one slot of it. What makes one species different from another
+ * is kept in tables indexed by species id: which pass of the step it acts
+ * in and its diet, as a mask of the species it eats, here, and the numbers
+ * for how it ages, breeds and feeds in the Parameters of the run. A species
+ * with an empty diet grazes and never goes hungry.
+ *
+ * Every species acts through the same kernel, act(), which only looks its
+ * species up in the tables, so adding a species means adding a column to
+ * the tables rather than another class with its own act method, or another
+ * loop in the step.
+ *
+ * There is no random generator here: every random choice is drawn from a
+ * stream handed in by the caller, so a run can be repeated from its seed.
+ */
 public class Animal {
-	protected int BREEDING_AGE;
-	protected int MAX_AGE;
-	protected double BREEDING_PROBABILITY;
-	protected int MAX_LITTER_SIZE;
-	protected int age;
-	protected boolean alive;
-	protected Location location;
-	protected static final Random rand = new Random();
-	protected double CREATION_PROBABILITY;
-	public Animal (boolean randomAge){
-		age = 0;
-		alive = true;
-		if(randomAge) {
-			age = rand.nextInt(MAX_AGE);}
-		}
-	public void act(Field field, Field updatedField, List<Animal> newAnimals) {
-		
-	}
-	protected void incrementAge() {
-		age++;
-		if (age > MAX_AGE) {
-			alive = false;
-		}
-	}
-	protected int breed() {
-		int births = 0;
-		if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-			births = rand.nextInt(MAX_LITTER_SIZE) + 1;
+	/** Species id of rabbits */
+	public static final int RABBIT = 0;
+	/** Species id of foxes */
+	public static final int FOX = 1;
+	/** Species id of lynxes */
+	public static final int LYNX = 2;
+	/** The number of species */
+	public static final int SPECIES_COUNT = 3;
+
+	/** Cause of death: living past its species' maximum age */
+	public static final int OLD_AGE = 0;
+	/** Cause of death: going too long without eating */
+	public static final int STARVATION = 1;
+	/** Cause of death: having nowhere to move, or being pushed off its cell
+	 *  by a newborn */
+	public static final int OVERCROWDING = 2;
+	/** Cause of death: being eaten */
+	public static final int PREDATION = 3;
+	/** The number of causes of death */
+	public static final int CAUSE_COUNT = 4;
+
+	// The name of each cause of death, indexed by cause.
+	private static final String[] CAUSE_NAMES = { "oldAge", "starvation",
+			"overcrowding", "predation" };
+
+	// The class describing each species, indexed by species id. These are
+	// the keys used by the display, the graph and the counters, and hold the
+	// species' parameters.
+	private static final Class<?>[] SPECIES_CLASSES = { Rabbit.class,
+			Fox.class, Lynx.class };
+
+	// The pass of the step in which each species acts.
+	static final int[] ACTING_PASSES = { Rabbit.ACTING_PASS, Fox.ACTING_PASS,
+			Lynx.ACTING_PASS };
+	// The species each species eats, one bit per species id.
+	static final int[] DIETS = { Rabbit.DIET, Fox.DIET, Lynx.DIET };
+
+	protected Animal() {
+	}
+
+	/**
+	 * @return The class describing a species.
+	 */
+	public static Class<?> speciesClass(int species) {
+		return SPECIES_CLASSES[species];
+	}
+
+	/**
+	 * @return The name of a cause of death.
+	 */
+	public static String causeName(int cause) {
+		return CAUSE_NAMES[cause];
+	}
+
+	/**
+	 * @return The species id for a class, or Field.EMPTY if it isn't one of
+	 *         the species.
+	 */
+	public static int speciesOf(Class<?> animalClass) {
+		for (int species = 0; species < SPECIES_COUNT; species++) {
+			if (SPECIES_CLASSES[species] == animalClass) {
+				return species;
+			}
+		}
+		return Field.EMPTY;
+	}
+
+	/**
+	 * @return Whether one species eats another. Nothing eats Field.EMPTY.
+	 */
+	static boolean eats(int species, int prey) {
+		return prey != Field.EMPTY && (DIETS[species] & 1 << prey) != 0;
+	}
+
+	/**
+	 * Add an animal to a population, either as a newborn (age zero and not
+	 * hungry) or with a random age and, if it can go hungry, a random food
+	 * level.
+	 * 
+	 * @param population
+	 *            The population to add it to.
+	 * @param parameters
+	 *            The parameters of the run.
+	 * @param species
+	 *            Its species.
+	 * @param randomAge
+	 *            If true, the animal will have a random age and food level.
+	 * @param cell
+	 *            The packed cell it occupies.
+	 * @param rand
+	 *            The random stream for the age and food level.
+	 * @return The slot of the new animal.
+	 */
+	static int create(Population population, Parameters parameters,
+			int species, boolean randomAge, long cell, SplittableRandom rand) {
+		int fullFoodLevel = parameters.fullFoodLevels[species];
+		if (!randomAge) {
+			return population.add(species, 0, fullFoodLevel, cell);
+		}
+		int age = randomAge(parameters, species, rand);
+		int foodLevel = fullFoodLevel == 0 ? 0 : rand.nextInt(fullFoodLevel);
+		return population.add(species, age, foodLevel, cell);
+	}
+
+	/**
+	 * This is what every animal does in its pass of a step. It ages and, if
+	 * it eats other animals, gets hungrier, either of which might kill it. If
+	 * it lives it might breed, and then it moves: onto something it eats, if
+	 * there is any next to it, or else to a free adjacent cell. With nowhere
+	 * to go it dies of overcrowding.
+	 * 
+	 * @param context
+	 *            The population and fields the animal acts on.
+	 * @param slot
+	 *            The animal's slot.
+	 */
+	static void act(StepContext context, int slot) {
+		Population population = context.population;
+		int species = population.getSpecies(slot);
+		boolean hunts = DIETS[species] != 0;
+		incrementAge(context, slot);
+		if (hunts) {
+			incrementHunger(context, slot);
+		}
+		if (!population.isAlive(slot)) {
+			return;
+		}
+		long cell = population.getCell(slot);
+		// Young are born into adjacent locations, as hungry as the parent.
+		int births = breed(context, slot);
+		for (int b = 0; b < births; b++) {
+			long birthCell = context.updatedField.randomAdjacentCell(cell,
+					context.rand);
+			context.bear(species, population.getFoodLevel(slot), birthCell);
+		}
+		// Move towards the source of food if found.
+		long newCell = hunts ? findFood(context, slot, cell) : Field.NO_CELL;
+		if (newCell == Field.NO_CELL) { // no food found - move randomly
+			newCell = context.updatedField.freeAdjacentCell(cell, context.rand);
+		}
+		if (newCell != Field.NO_CELL) {
+			context.place(slot, newCell);
+		} else {
+			// can neither move nor stay - overcrowding - all locations taken
+			context.kill(slot, OVERCROWDING);
 		}
-		return births;
 	}
-	protected boolean canBreed() {
-		return age >= BREEDING_AGE;
+
+	/**
+	 * Look for something the animal eats adjacent to its current location.
+	 * Only the first live one is eaten.
+	 * 
+	 * @param context
+	 *            The population and fields the animal acts on. It looks in
+	 *            the current field.
+	 * @param slot
+	 *            The animal's slot.
+	 * @param cell
+	 *            The packed cell where it is located.
+	 * @return The packed cell where food was found, or Field.NO_CELL if it
+	 *         wasn't.
+	 */
+	static long findFood(StepContext context, int slot, long cell) {
+		Field field = context.currentField;
+		int diet = DIETS[context.population.getSpecies(slot)];
+		int col = Field.colOf(cell);
+		int row = Field.rowOf(cell);
+		int[] order = Field.randomNeighbourOrder(context.rand);
+
+		// Only positions the bitboards say hold prey are looked at.
+		int around = field.speciesAround(col, row, diet);
+		if (around == 0) {
+			return Field.NO_CELL;
+		}
+		for (int i = 0; i < order.length; i++) {
+			if ((around & Field.DIRECTION_BITS[order[i]]) != 0) {
+				int nextCol = col + Field.COLUMN_CHANGES[order[i]];
+				int nextRow = row + Field.ROW_CHANGES[order[i]];
+				int prey = field.getSpeciesAt(nextCol, nextRow);
+				int eaten = field.getOccupant(nextCol, nextRow);
+				if (context.population.isAlive(eaten)) {
+					context.kill(eaten, PREDATION);
+					context.population.setFoodLevel(slot,
+							context.parameters.foodValues[prey]);
+					return Field.toCell(nextCol, nextRow);
+				}
+			}
+		}
+
+		return Field.NO_CELL;
 	}
-	protected boolean isAlive() {
-		return alive;
+	/**
+	 * @return A random age for a new member of a species.
+	 */
+	static int randomAge(Parameters parameters, int species,
+			SplittableRandom rand) {
+		return rand.nextInt(parameters.maxAges[species]);
 	}
-	protected void setLocation(int row, int col) {
-		this.location = new Location(row, col);
+
+	/**
+	 * Increase the age. This could result in the animal's death.
+	 */
+	static void incrementAge(StepContext context, int slot) {
+		Population population = context.population;
+		int age = population.getAge(slot) + 1;
+		population.setAge(slot, age);
+		if (age > context.parameters.maxAges[population.getSpecies(slot)]) {
+			context.kill(slot, OLD_AGE);
+		}
 	}
-	protected void setLocation(Location location) {
-		this.location = location;
+
+	/**
+	 * Make the animal more hungry. This could result in the animal's death.
+	 */
+	static void incrementHunger(StepContext context, int slot) {
+		Population population = context.population;
+		int foodLevel = population.getFoodLevel(slot) - 1;
+		population.setFoodLevel(slot, foodLevel);
+		if (foodLevel <= 0) {
+			context.kill(slot, STARVATION);
+		}
+	}
+
+	/**
+	 * Generate a number representing the number of births, if the animal
+	 * can breed.
+	 * 
+	 * @return The number of births (may be zero).
+	 */
+	static int breed(StepContext context, int slot) {
+		Population population = context.population;
+		Parameters parameters = context.parameters;
+		int species = population.getSpecies(slot);
+		int births = 0;
+		if (population.getAge(slot) >= parameters.breedingAges[species]
+				&& context.rand.nextDouble() <= parameters.breedingProbabilities[species]) {
+			births = context.rand.nextInt(parameters.maxLitterSizes[species]) + 1;
+		}
+		return births;
 	}
-	protected void setEaten()
-    {
-        alive = false;
-    }
 }
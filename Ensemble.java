@@ -0,0 +1,519 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs many independent simulations at once, to see how their outcomes are
+ * spread: how often each species dies out, how long the runs last. Each run
+ * gets an engine of its own, stepped on one thread, and stops as soon as it
+ * is no longer viable or has run its number of steps. The runs share
+ * nothing that changes: every random choice an engine makes comes from its
+ * own seed (see SimulationEngine), so a run gives the same summary whichever
+ * thread it lands on and whatever else is running.
+ *
+ * The runs are handed to a bounded pool of threads, one per core unless
+ * told otherwise, so only that many engines are in memory at a time. As
+ * each run finishes its Summary is handed to an Aggregator, in the order
+ * the runs finish. The aggregator is only ever called from the thread that
+ * called run(), so it needs no locking of its own.
+ */
+public class Ensemble {
+
+	/**
+	 * One simulation to run: the size of its field, the seed it starts from,
+	 * its parameters and the most steps it may take.
+	 */
+	public static class Run {
+		private final int width, height;
+		private final long seed;
+		private final int layout;
+		private final int maxSteps;
+		private final Parameters parameters;
+
+		/**
+		 * @param width
+		 *            Width of the field. Must be greater than zero.
+		 * @param height
+		 *            Height of the field. Must be greater than zero.
+		 * @param seed
+		 *            The seed for every random choice the run makes.
+		 * @param layout
+		 *            How to store the field (see Field.create).
+		 * @param maxSteps
+		 *            The most steps to run for.
+		 */
+		public Run(int width, int height, long seed, int layout, int maxSteps) {
+			this(width, height, seed, layout, maxSteps, new Parameters());
+		}
+
+		/**
+		 * @param width
+		 *            Width of the field. Must be greater than zero.
+		 * @param height
+		 *            Height of the field. Must be greater than zero.
+		 * @param seed
+		 *            The seed for every random choice the run makes.
+		 * @param layout
+		 *            How to store the field (see Field.create).
+		 * @param maxSteps
+		 *            The most steps to run for.
+		 * @param parameters
+		 *            The parameters of the run. The run keeps a copy.
+		 */
+		public Run(int width, int height, long seed, int layout, int maxSteps,
+				Parameters parameters) {
+			this.width = width;
+			this.height = height;
+			this.seed = seed;
+			this.layout = layout;
+			this.maxSteps = maxSteps;
+			this.parameters = new Parameters(parameters);
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+
+		public int getLayout() {
+			return layout;
+		}
+
+		public int getMaxSteps() {
+			return maxSteps;
+		}
+
+		/**
+		 * @return The parameters of the run. They mustn't be changed.
+		 */
+		public Parameters getParameters() {
+			return parameters;
+		}
+	}
+
+	/**
+	 * What happened in one run.
+	 */
+	public static class Summary {
+		private final Run run;
+		private final int steps;
+		private final boolean viable;
+		private final int[] extinctionSteps;
+		private final int[] finalCounts;
+		private final int[] peakCounts;
+		private final double[] meanCounts;
+		private final long nanos;
+
+		Summary(Run run, int steps, boolean viable, int[] extinctionSteps,
+				int[] finalCounts, int[] peakCounts, double[] meanCounts,
+				long nanos) {
+			this.run = run;
+			this.steps = steps;
+			this.viable = viable;
+			this.extinctionSteps = extinctionSteps;
+			this.finalCounts = finalCounts;
+			this.peakCounts = peakCounts;
+			this.meanCounts = meanCounts;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return The run this summarises.
+		 */
+		public Run getRun() {
+			return run;
+		}
+
+		/**
+		 * @return The number of steps the run took.
+		 */
+		public int getSteps() {
+			return steps;
+		}
+
+		/**
+		 * @return Whether the run was still viable when it stopped, i.e.
+		 *         it ran its full number of steps.
+		 */
+		public boolean isViable() {
+			return viable;
+		}
+
+		/**
+		 * @param species
+		 *            A species id.
+		 * @return The step the last of the species died in, 0 if there
+		 *         were none at the start, or -1 if some were still alive at
+		 *         the end.
+		 */
+		public int getExtinctionStep(int species) {
+			return extinctionSteps[species];
+		}
+
+		/**
+		 * @param species
+		 *            A species id.
+		 * @return The number of the species alive at the end.
+		 */
+		public int getFinalCount(int species) {
+			return finalCounts[species];
+		}
+
+		/**
+		 * @param species
+		 *            A species id.
+		 * @return The most of the species alive at the end of any step,
+		 *         including the start.
+		 */
+		public int getPeakCount(int species) {
+			return peakCounts[species];
+		}
+
+		/**
+		 * @param species
+		 *            A species id.
+		 * @return The number of the species alive on average, over the
+		 *         start and the end of every step.
+		 */
+		public double getMeanCount(int species) {
+			return meanCounts[species];
+		}
+
+		/**
+		 * @return How long the run took, in nanoseconds.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append("seed ").append(run.getSeed()).append(": ").append(steps)
+					.append(viable ? " steps, viable" : " steps, not viable");
+			for (int species = 0; species < Animal.SPECIES_COUNT; species++) {
+				s.append(", ").append(Animal.speciesClass(species).getName())
+						.append(' ').append(finalCounts[species]);
+				if (extinctionSteps[species] >= 0) {
+					s.append(" (extinct at ").append(extinctionSteps[species])
+							.append(')');
+				}
+			}
+			return s.toString();
+		}
+	}
+
+	/**
+	 * Something that collects the summaries of the runs as they finish.
+	 */
+	public interface Aggregator {
+
+		/**
+		 * Called once for each run, as soon as it has finished.
+		 *
+		 * @param summary
+		 *            What happened in the run.
+		 */
+		void runCompleted(Summary summary);
+	}
+
+	/**
+	 * Totals up the outcomes of the runs: how many there were, how often
+	 * each species died out, and how long they lasted.
+	 */
+	public static class Outcomes implements Aggregator {
+		private int runs;
+		private int viableRuns;
+		private final int[] extinctions = new int[Animal.SPECIES_COUNT];
+		private long totalSteps;
+
+		public void runCompleted(Summary summary) {
+			runs++;
+			if (summary.isViable()) {
+				viableRuns++;
+			}
+			for (int species = 0; species < extinctions.length; species++) {
+				if (summary.getExtinctionStep(species) >= 0) {
+					extinctions[species]++;
+				}
+			}
+			totalSteps += summary.getSteps();
+		}
+
+		public int getRuns() {
+			return runs;
+		}
+
+		/**
+		 * @return The fraction of runs still viable when they stopped.
+		 */
+		public double getViableFraction() {
+			return runs == 0 ? 0 : (double) viableRuns / runs;
+		}
+
+		/**
+		 * @param species
+		 *            A species id.
+		 * @return The fraction of runs in which the species died out.
+		 */
+		public double getExtinctionProbability(int species) {
+			return runs == 0 ? 0 : (double) extinctions[species] / runs;
+		}
+
+		/**
+		 * @return The mean number of steps a run lasted.
+		 */
+		public double getMeanSteps() {
+			return runs == 0 ? 0 : (double) totalSteps / runs;
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append(runs).append(" runs, ")
+					.append(String.format("%.3f", getViableFraction()))
+					.append(" viable, mean steps ")
+					.append(String.format("%.1f", getMeanSteps()));
+			for (int species = 0; species < extinctions.length; species++) {
+				s.append(", P(").append(Animal.speciesClass(species).getName())
+						.append(" extinct) ").append(String.format("%.3f",
+								getExtinctionProbability(species)));
+			}
+			return s.toString();
+		}
+	}
+
+	// The threads the runs are stepped on.
+	private final ExecutorService pool;
+
+	/**
+	 * Create an ensemble runner with one thread per core.
+	 */
+	public Ensemble() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an ensemble runner with a fixed number of threads.
+	 *
+	 * @param threads
+	 *            The number of runs to step at once. Must be greater than
+	 *            zero.
+	 */
+	public Ensemble(int threads) {
+		this(Executors.newFixedThreadPool(checkThreads(threads),
+				new ThreadFactory() {
+					private int next;
+
+					public synchronized Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Ensemble run " + next++);
+						thread.setDaemon(true);
+						return thread;
+					}
+				}));
+	}
+
+	/**
+	 * Create an ensemble runner that steps its runs on the given executor,
+	 * e.g. one starting a virtual thread per run. The executor is shut down
+	 * along with the runner.
+	 *
+	 * @param pool
+	 *            The executor to run on.
+	 */
+	public Ensemble(ExecutorService pool) {
+		this.pool = pool;
+	}
+
+	private static int checkThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, not "
+					+ threads);
+		}
+		return threads;
+	}
+
+	/**
+	 * Run every simulation, handing the summary of each to the aggregator
+	 * as it finishes. Returns once they all have. If a run fails, or the
+	 * calling thread is interrupted, the runs that haven't finished are
+	 * cancelled.
+	 *
+	 * @param runs
+	 *            The simulations to run.
+	 * @param aggregator
+	 *            Told about each run as it finishes, on the calling thread.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the runs.
+	 */
+	public void run(List<Run> runs, Aggregator aggregator)
+			throws InterruptedException {
+		CompletionService<Summary> done = new ExecutorCompletionService<Summary>(
+				pool);
+		List<Future<Summary>> futures = new ArrayList<Future<Summary>>();
+		try {
+			for (final Run run : runs) {
+				futures.add(done.submit(new Callable<Summary>() {
+					public Summary call() {
+						return simulate(run);
+					}
+				}));
+			}
+			for (int i = 0; i < runs.size(); i++) {
+				Summary summary;
+				try {
+					summary = done.take().get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("A run failed", e.getCause());
+				}
+				aggregator.runCompleted(summary);
+			}
+		} finally {
+			for (Future<Summary> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Stop the threads. The runner can't be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Run one simulation to the end, on the calling thread.
+	 *
+	 * @param run
+	 *            The simulation to run.
+	 * @return What happened.
+	 */
+	static Summary simulate(Run run) {
+		long start = System.nanoTime();
+		SimulationEngine engine = new SimulationEngine(run.getWidth(),
+				run.getHeight(), run.getSeed(), run.getLayout(),
+				run.getParameters());
+		Population population = engine.getPopulation();
+		int n = Animal.SPECIES_COUNT;
+		int[] extinctionSteps = new int[n];
+		int[] peakCounts = new int[n];
+		long[] totalCounts = new long[n];
+		for (int species = 0; species < n; species++) {
+			// A species missing from the start died out before step one.
+			extinctionSteps[species] = population.getCount(species) == 0 ? 0
+					: -1;
+			peakCounts[species] = population.getCount(species);
+			totalCounts[species] = population.getCount(species);
+		}
+
+		while (engine.getStep() < run.getMaxSteps() && engine.isViable()) {
+			if (Thread.currentThread().isInterrupted()) {
+				// Cancelled: nobody is waiting for the summary.
+				break;
+			}
+			engine.step();
+			for (int species = 0; species < n; species++) {
+				int count = population.getCount(species);
+				totalCounts[species] += count;
+				if (count > peakCounts[species]) {
+					peakCounts[species] = count;
+				}
+				if (count == 0 && extinctionSteps[species] < 0) {
+					extinctionSteps[species] = engine.getStep();
+				}
+			}
+		}
+
+		int[] finalCounts = new int[n];
+		double[] meanCounts = new double[n];
+		for (int species = 0; species < n; species++) {
+			finalCounts[species] = population.getCount(species);
+			meanCounts[species] = (double) totalCounts[species]
+					/ (engine.getStep() + 1);
+		}
+		return new Summary(run, engine.getStep(), engine.isViable(),
+				extinctionSteps, finalCounts, peakCounts, meanCounts,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Run an ensemble from the command line and print the summary of each
+	 * run and the outcomes of them all.
+	 *
+	 * Options: -runs n, -size WxH, -steps n, -seed first (the runs take the
+	 * seeds from first up), -threads n and -quiet (print only the
+	 * outcomes).
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int runs = 100;
+		int width = 100, height = 100;
+		int steps = 1000;
+		long firstSeed = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean quiet = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-quiet")) {
+				quiet = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				System.out.println("Missing value for " + args[i]);
+				return;
+			}
+			if (args[i].equals("-runs")) {
+				runs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-size")) {
+				String[] dims = args[++i].split("x");
+				width = Integer.parseInt(dims[0]);
+				height = Integer.parseInt(dims[1]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-seed")) {
+				firstSeed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				System.out.println("Unknown option " + args[i]);
+				return;
+			}
+		}
+
+		List<Run> list = new ArrayList<Run>();
+		for (int i = 0; i < runs; i++) {
+			list.add(new Run(width, height, firstSeed + i,
+					Field.DEFAULT_LAYOUT, steps));
+		}
+		final Outcomes outcomes = new Outcomes();
+		final boolean printRuns = !quiet;
+		Ensemble ensemble = new Ensemble(threads);
+		long start = System.nanoTime();
+		try {
+			ensemble.run(list, new Aggregator() {
+				public void runCompleted(Summary summary) {
+					outcomes.runCompleted(summary);
+					if (printRuns) {
+						System.out.println(summary);
+					}
+				}
+			});
+		} finally {
+			ensemble.shutdown();
+		}
+		System.out.println(outcomes);
+		System.out.printf("%.2f s on %d threads%n",
+				(System.nanoTime() - start) / 1e9, threads);
+	}
+}
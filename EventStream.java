@@ -0,0 +1,216 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The births and deaths of a simulation as a stream of events, for whoever
+ * wants to follow them: analytics, a journal, a window. Each event is a
+ * primitive record of the step it happened in, its kind (a cause of death
+ * such as Animal.STARVATION, or BIRTH), the species of the animal and its
+ * packed cell.
+ *
+ * A consumer subscribes and gets a Subscription of its own: a ring buffer
+ * of fixed size, allocated once, which the simulation writes and the
+ * consumer drains on a thread of its choosing with drain(). The simulation
+ * never waits for a consumer: events that don't fit in a full ring are
+ * dropped and counted.
+ *
+ * While nobody is subscribed, no event is recorded at all; an animal dying
+ * costs one null check (see StepContext). Otherwise the events of each part
+ * of a step are kept in the StepContext that saw them and handed over in
+ * one go when it is merged, so the order of the events is fixed by the
+ * seed, however many threads step the engine.
+ */
+public class EventStream {
+
+	/** Kind of event: an animal was born. The other kinds are the causes of
+	 *  death, Animal.OLD_AGE to Animal.PREDATION. */
+	public static final int BIRTH = Animal.CAUSE_COUNT;
+
+	// The number of events a subscription holds unless told otherwise.
+	static final int DEFAULT_CAPACITY = 1 << 16;
+
+	// The subscriptions, replaced whole whenever one is added or removed.
+	private volatile Subscription[] subscriptions = new Subscription[0];
+
+	/**
+	 * Something that is handed events as a subscription is drained.
+	 */
+	public interface Handler {
+
+		/**
+		 * Called once for each event, in the order they happened.
+		 *
+		 * @param step
+		 *            The step it happened in.
+		 * @param kind
+		 *            BIRTH, or the cause of a death (e.g. Animal.OLD_AGE).
+		 * @param species
+		 *            The species of the animal born or killed.
+		 * @param cell
+		 *            The packed cell it was born in or died in (see
+		 *            Field.toCell).
+		 */
+		void event(int step, int kind, int species, long cell);
+	}
+
+	/**
+	 * One consumer's view of the stream: a ring written by the simulation
+	 * and read by the consumer. Each event takes two longs, a header of
+	 * step, kind and species, and the cell.
+	 */
+	public static class Subscription {
+		private final long[] ring;
+		private final int mask;
+
+		// The number of events ever written and ever read. Each is only
+		// advanced by one side, after the ring itself has been written or
+		// read, so the other side sees whole events.
+		private final AtomicLong written = new AtomicLong();
+		private final AtomicLong read = new AtomicLong();
+
+		// The writer's last look at read, so that it rarely has to look.
+		private long readSeen;
+
+		private final AtomicLong dropped = new AtomicLong();
+
+		Subscription(int capacity) {
+			if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+				throw new IllegalArgumentException("Capacity " + capacity
+						+ " is not a power of two");
+			}
+			ring = new long[2 * capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 * Hand every event waiting in the ring to a handler.
+		 *
+		 * @param handler
+		 *            What to hand them to.
+		 * @return The number of events handed over.
+		 */
+		public int drain(Handler handler) {
+			long from = read.get();
+			long to = written.get();
+			for (long i = from; i < to; i++) {
+				int at = 2 * (int) (i & mask);
+				long header = ring[at];
+				handler.event((int) (header >>> 32), (int) (header >>> 8) & 0xFF,
+						(int) header & 0xFF, ring[at + 1]);
+			}
+			read.lazySet(to);
+			return (int) (to - from);
+		}
+
+		/**
+		 * @return The number of events waiting to be drained.
+		 */
+		public int available() {
+			return (int) (written.get() - read.get());
+		}
+
+		/**
+		 * @return The number of events dropped because the ring was full.
+		 */
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		/**
+		 * Write a batch of events, as many as fit. Only ever called by the
+		 * thread stepping the simulation.
+		 */
+		void write(long[] events, int count) {
+			long at = written.get();
+			int capacity = mask + 1;
+			if (at + count - readSeen > capacity) {
+				readSeen = read.get();
+			}
+			int fits = (int) Math.min(count, capacity - (at - readSeen));
+			if (fits < count) {
+				dropped.addAndGet(count - fits);
+			}
+			for (int i = 0; i < fits; i++) {
+				int slot = 2 * (int) ((at + i) & mask);
+				ring[slot] = events[2 * i];
+				ring[slot + 1] = events[2 * i + 1];
+			}
+			written.lazySet(at + fits);
+		}
+	}
+
+	/**
+	 * Start receiving events, from the next part of a step merged.
+	 *
+	 * @return The new subscription, holding up to DEFAULT_CAPACITY events.
+	 */
+	public Subscription subscribe() {
+		return subscribe(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Start receiving events, from the next part of a step merged.
+	 *
+	 * @param capacity
+	 *            The number of events the subscription can hold before the
+	 *            consumer drains it. Must be a power of two.
+	 * @return The new subscription.
+	 */
+	public synchronized Subscription subscribe(int capacity) {
+		Subscription subscription = new Subscription(capacity);
+		Subscription[] more = Arrays.copyOf(subscriptions,
+				subscriptions.length + 1);
+		more[more.length - 1] = subscription;
+		subscriptions = more;
+		return subscription;
+	}
+
+	/**
+	 * Stop receiving events. Those already in the subscription can still be
+	 * drained.
+	 *
+	 * @param subscription
+	 *            The subscription to end.
+	 */
+	public synchronized void unsubscribe(Subscription subscription) {
+		Subscription[] fewer = new Subscription[subscriptions.length];
+		int n = 0;
+		for (Subscription s : subscriptions) {
+			if (s != subscription) {
+				fewer[n++] = s;
+			}
+		}
+		subscriptions = Arrays.copyOf(fewer, n);
+	}
+
+	/**
+	 * @return Whether anyone is subscribed.
+	 */
+	public boolean hasSubscribers() {
+		return subscriptions.length > 0;
+	}
+
+	/**
+	 * Pack the header of an event.
+	 */
+	static long header(int step, int kind, int species) {
+		return (long) step << 32 | (kind & 0xFF) << 8 | species & 0xFF;
+	}
+
+	/**
+	 * Hand a batch of events to every subscription.
+	 *
+	 * @param events
+	 *            Pairs of header and cell.
+	 * @param count
+	 *            The number of events.
+	 */
+	void publish(long[] events, int count) {
+		if (count == 0) {
+			return;
+		}
+		for (Subscription subscription : subscriptions) {
+			subscription.write(events, count);
+		}
+	}
+}
@@ -1,15 +1,23 @@
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * Represent a rectangular grid of field positions. Each position is able to
- * store a single animal.
+ * store a single animal. The animals themselves live in a Population; the
+ * field records the slot and species of the animal at each position.
+ * 
+ * Which positions are occupied, and by which species, is kept in
+ * bitboards: one per species, and one of every occupied position, a row at
+ * a time whatever the layout. Asking what is around a position (see
+ * speciesAround and occupiedAround) then reads a few words instead of eight
+ * board entries, and the board itself need only hold slots.
  * 
  * @author David J. Barnes and Michael Kolling. Modified by David Dobervich
  *         2007-2013
@@ -17,13 +25,51 @@ import java.util.Random;
  */
 public class Field implements Serializable {
 
-	private static final Random rand = new Random();
-
 	// The height and width of the field.
 	private int height, width;
 
-	// Storage for the items on the board.
-	private Object[][] board;
+	// Storage for the items on the board, one entry per position in the
+	// order given by the layout (see index): the slot of the animal at the
+	// position. Only meaningful where the position is occupied.
+	private int[] board;
+
+	// The species of the animal at each position, in the same order as the
+	// board. Only meaningful where the position is occupied.
+	private byte[] species;
+
+	// How positions are ordered in the board: ROW_MAJOR, TILED or MORTON.
+	private int layout;
+
+	// The number of tiles across the field, in the TILED layout.
+	private int tilesAcross;
+
+	// One bitboard per species, and one of every occupied position. Each
+	// row takes rowWords words, with column c at bit c + 1 of the row, and
+	// there is a row more above and below the field, so the bits around any
+	// position can be read without checking the edges. The bits around the
+	// field are clear in the species bitboards, and set in the occupied
+	// one, since nothing can move off the field.
+	private long[][] speciesBits;
+	private long[] occupiedBits;
+	private int rowWords;
+
+	// Whether several threads may be putting and removing at once, so that
+	// bitboard words have to be updated atomically.
+	private boolean concurrent;
+
+	// Summaries of the occupied bitboard, for looks across the field: a bit
+	// per square block of side 1 << SUMMARY_SHIFTS[level], blocks a row at
+	// a time, with summaryAcross[level] blocks to a row. A block's bit is
+	// set once anything is put in it, and stays set until the field is
+	// cleared, so a clear bit means the block is certainly empty.
+	private long[][] summaryBits;
+	private int[] summaryAcross;
+
+	// The rows with bits set since the field was last cleared, and whether
+	// there are any. Clearing the field only has to wipe these, so it costs
+	// nothing for an empty field however big it is.
+	private boolean[] dirtyRows;
+	private boolean dirty;
 
 	private HashMap<Class, ArrayList<Location>> animals;
 
@@ -49,11 +95,89 @@ public class Field implements Serializable {
 	static final int NW = 7;
 	/** Represents the direction "right here" */
 	static final int STAY = 8;
+	/** The bit standing for each direction, including STAY, in the masks
+	 *  returned by speciesAround and occupiedAround */
+	static final int[] DIRECTION_BITS = new int[STAY + 1];
 	/** The smallest int representing a direction */
 	static final int MIN_DIRECTION = 0;
 	/** The largest int representing a direction */
 	static final int MAX_DIRECTION = 7;
 
+	/** The slot or species returned for an empty position */
+	static final int EMPTY = -1;
+	/** The packed cell that stands for "no location" */
+	static final long NO_CELL = -1L;
+
+	/** Layout storing the board a row at a time */
+	static final int ROW_MAJOR = 0;
+	/** Layout storing the board in square tiles, each a row at a time */
+	static final int TILED = 1;
+	/** Layout storing the board in Z-order, with the bits of the column and
+	 *  row interleaved */
+	static final int MORTON = 2;
+	/** Layout storing only the parts of the board in use, in chunks (see
+	 *  SparseField) */
+	static final int SPARSE = 3;
+	/** The layout of a field made without one being asked for */
+	static final int DEFAULT_LAYOUT = ROW_MAJOR;
+
+	/** The side of a tile in the TILED layout is 2 to the power of this */
+	static final int TILE_SHIFT = 3;
+
+	// The side of a tile in the TILED layout, and the mask that takes a
+	// column or row down to its place within a tile.
+	private static final int TILE_SIZE = 1 << TILE_SHIFT;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+
+	/** How each direction, including STAY, changes the column number */
+	static final int[] COLUMN_CHANGES = new int[STAY + 1];
+	/** How each direction, including STAY, changes the row number */
+	static final int[] ROW_CHANGES = new int[STAY + 1];
+
+	// The sides of the blocks summarised for looks, biggest first, as
+	// powers of two.
+	private static final int[] SUMMARY_SHIFTS = { 6, 3 };
+
+	// The side of the smallest block summarised, as a power of two.
+	private static final int BLOCK_SHIFT = 3;
+	private static final int NEAR = 8;
+
+	// The bits of the neighbours in an around mask, leaving out STAY.
+	private static final int NEIGHBOUR_BITS = 0x1FF & ~(1 << 4);
+
+	// Sets and clears bits of a bitboard word atomically, for tiles stepped
+	// at the same time that share a word (see ParallelStep).
+	private static final VarHandle WORDS = MethodHandles
+			.arrayElementVarHandle(long[].class);
+
+	// Orders in which to visit the eight neighbours of a location. Walking
+	// round the compass from any starting direction with an odd stride visits
+	// every direction exactly once, so each entry is a permutation of the
+	// directions and any neighbour is equally likely to come first.
+	private static final int[][] NEIGHBOUR_ORDERS;
+
+	static {
+		for (int direction = 0; direction <= STAY; direction++) {
+			COLUMN_CHANGES[direction] = columnChange(direction);
+			ROW_CHANGES[direction] = rowChange(direction);
+			DIRECTION_BITS[direction] = 1 << ((ROW_CHANGES[direction] + 1) * 3
+					+ COLUMN_CHANGES[direction] + 1);
+		}
+
+		int directions = MAX_DIRECTION - MIN_DIRECTION + 1;
+		NEIGHBOUR_ORDERS = new int[directions * directions / 2][];
+		int next = 0;
+		for (int start = 0; start < directions; start++) {
+			for (int stride = 1; stride < directions; stride += 2) {
+				int[] order = new int[directions];
+				for (int i = 0; i < directions; i++) {
+					order[i] = MIN_DIRECTION + (start + i * stride) % directions;
+				}
+				NEIGHBOUR_ORDERS[next++] = order;
+			}
+		}
+	}
+
 	/**
 	 * Represent a field of the given dimensions.
 	 * 
@@ -63,11 +187,112 @@ public class Field implements Serializable {
 	 *            The width of the field.
 	 */
 	public Field(int width, int height) {
+		this(width, height, DEFAULT_LAYOUT);
+	}
+
+	/**
+	 * Represent a field of the given dimensions, with its board stored in
+	 * the given layout. The layout only changes how fast the field is, never
+	 * what it holds: ROW_MAJOR is the most compact, while TILED and MORTON
+	 * keep the eight neighbours of a position closer together in memory. A
+	 * MORTON board is padded out to a square whose side is a power of two.
+	 * For the SPARSE layout use create().
+	 * 
+	 * @param width
+	 *            The width of the field.
+	 * @param height
+	 *            The height of the field.
+	 * @param layout
+	 *            ROW_MAJOR, TILED or MORTON.
+	 */
+	public Field(int width, int height, int layout) {
+		this(width, height, false);
+		long size;
+		switch (layout) {
+		case ROW_MAJOR:
+			size = (long) width * height;
+			break;
+		case TILED:
+			tilesAcross = (width + TILE_MASK) >>> TILE_SHIFT;
+			size = (long) tilesAcross * ((height + TILE_MASK) >>> TILE_SHIFT)
+					* TILE_SIZE * TILE_SIZE;
+			break;
+		case MORTON:
+			long side = Long.highestOneBit(Math.max(width, height) - 1) << 1;
+			size = Math.max(side * side, 1);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown layout " + layout);
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A field of " + width + "x"
+					+ height + " is too big to store densely");
+		}
+		this.layout = layout;
+		board = new int[(int) size];
+		species = new byte[(int) size];
+
+		rowWords = (width + 2 + 63) >>> 6;
+		if ((long) rowWords * (height + 2) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A field of " + width + "x"
+					+ height + " is too big to store densely");
+		}
+		speciesBits = new long[Animal.SPECIES_COUNT][rowWords * (height + 2)];
+		occupiedBits = new long[rowWords * (height + 2)];
+		Arrays.fill(occupiedBits, 0, rowWords, -1L);
+		Arrays.fill(occupiedBits, (height + 1) * rowWords, occupiedBits.length, -1L);
+		for (int row = 0; row < height; row++) {
+			fenceRow(row);
+		}
+		dirtyRows = new boolean[height];
+
+		summaryBits = new long[SUMMARY_SHIFTS.length][];
+		summaryAcross = new int[SUMMARY_SHIFTS.length];
+		for (int level = 0; level < SUMMARY_SHIFTS.length; level++) {
+			int side = 1 << SUMMARY_SHIFTS[level];
+			summaryAcross[level] = (width + side - 1) / side;
+			long blocks = (long) summaryAcross[level] * ((height + side - 1) / side);
+			summaryBits[level] = new long[(int) ((blocks + 63) >>> 6)];
+		}
+	}
+
+	/**
+	 * Make an empty field in any layout.
+	 * 
+	 * @param width
+	 *            The width of the field.
+	 * @param height
+	 *            The height of the field.
+	 * @param layout
+	 *            ROW_MAJOR, TILED, MORTON or SPARSE.
+	 * @return The field.
+	 */
+	static Field create(int width, int height, int layout) {
+		if (layout == SPARSE) {
+			return new SparseField(width, height);
+		}
+		return new Field(width, height, layout);
+	}
+
+	/**
+	 * Represent a field of the given dimensions, without a board. Subclasses
+	 * that store the positions some other way use this, and override the
+	 * methods that read and write positions: put, remove, clear,
+	 * getOccupant, getSpeciesAt, isEmpty, countSpecies, speciesAround,
+	 * occupiedAround and distance.
+	 * 
+	 * @param width
+	 *            The width of the field.
+	 * @param height
+	 *            The height of the field.
+	 * @param dense
+	 *            Ignored; there only to tell this constructor apart.
+	 */
+	protected Field(int width, int height, boolean dense) {
 		this.height = height;
 		this.width = width;
 		this.numberOfColumns = width;
 		this.numberOfRows = height;
-		board = new Object[width][height];
 		animals = new HashMap<Class, ArrayList<Location>>();
 	}
 
@@ -75,26 +300,193 @@ public class Field implements Serializable {
 	 * Empty the field.
 	 */
 	public void clear() {
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				board[col][row] = null;
+		if (dirty) {
+			for (long[] bits : summaryBits) {
+				Arrays.fill(bits, 0L);
 			}
 		}
+		for (int row = 0; dirty && row < height; row++) {
+			if (dirtyRows[row]) {
+				int from = (row + 1) * rowWords;
+				for (long[] bits : speciesBits) {
+					Arrays.fill(bits, from, from + rowWords, 0L);
+				}
+				Arrays.fill(occupiedBits, from, from + rowWords, 0L);
+				fenceRow(row);
+				dirtyRows[row] = false;
+			}
+		}
+		dirty = false;
+	}
+
+	/**
+	 * Note in the summaries that something has been put at a position.
+	 */
+	private void summarise(int col, int row) {
+		for (int level = 0; level < SUMMARY_SHIFTS.length; level++) {
+			int shift = SUMMARY_SHIFTS[level];
+			int block = (row >>> shift) * summaryAcross[level] + (col >>> shift);
+			long bit = 1L << block;
+			if ((summaryBits[level][block >>> 6] & bit) == 0) {
+				setBits(summaryBits[level], block >>> 6, bit);
+			}
+		}
+	}
+
+	/**
+	 * Mark the positions either side of a row as occupied.
+	 */
+	private void fenceRow(int row) {
+		occupiedBits[wordOf(-1, row)] |= 1L;
+		occupiedBits[wordOf(width, row)] |= 1L << (width + 1);
+	}
+
+	/**
+	 * @return Where the bit of a position is in a bitboard. The bit within
+	 *         the word is col + 1, taken modulo 64 by the shift.
+	 */
+	private int wordOf(int col, int row) {
+		return (row + 1) * rowWords + ((col + 1) >>> 6);
 	}
 
 	/**
 	 * Place an animal at the given location. If there is already an animal at
 	 * the location it will be lost.
 	 * 
-	 * @param animal
-	 *            The animal to be placed.
+	 * @param slot
+	 *            The animal's slot in the population.
+	 * @param species
+	 *            The animal's species.
+	 * @param col
+	 *            Column coordinate of the location.
 	 * @param row
 	 *            Row coordinate of the location.
+	 * @return The slot of the animal that was lost, or EMPTY.
+	 */
+	public int put(int slot, int species, int col, int row) {
+		int index = index(col, row);
+		int word = wordOf(col, row);
+		long bit = 1L << (col + 1);
+		boolean taken = (occupiedBits[word] & bit) != 0;
+		int lost = taken ? board[index] : EMPTY;
+		int lostSpecies = taken ? this.species[index] : EMPTY;
+		board[index] = slot;
+		this.species[index] = (byte) species;
+		if (lostSpecies != species) {
+			if (taken) {
+				clearBits(speciesBits[lostSpecies], word, bit);
+			} else {
+				setBits(occupiedBits, word, bit);
+				summarise(col, row);
+			}
+			setBits(speciesBits[species], word, bit);
+			if (!dirtyRows[row]) {
+				dirtyRows[row] = true;
+				dirty = true;
+			}
+		}
+		return lost;
+	}
+
+	/**
+	 * Place an animal at the given cell. If there is already an animal at
+	 * the cell it will be lost.
+	 * 
+	 * @param slot
+	 *            The animal's slot in the population.
+	 * @param species
+	 *            The animal's species.
+	 * @param cell
+	 *            The packed cell, as made by toCell.
+	 * @return The slot of the animal that was lost, or EMPTY.
+	 */
+	public int put(int slot, int species, long cell) {
+		return put(slot, species, colOf(cell), rowOf(cell));
+	}
+
+	/**
+	 * Say whether several threads may put and remove animals at once. They
+	 * never touch the same position, but neighbouring positions share
+	 * bitboard words, which then have to be updated atomically. That is
+	 * slower, so it is only done while it is needed.
+	 * 
+	 * @param concurrent
+	 *            true while several threads may be writing to the field.
+	 */
+	void setConcurrent(boolean concurrent) {
+		this.concurrent = concurrent;
+	}
+
+	private void setBits(long[] bits, int word, long mask) {
+		if (concurrent) {
+			WORDS.getAndBitwiseOr(bits, word, mask);
+		} else {
+			bits[word] |= mask;
+		}
+	}
+
+	private void clearBits(long[] bits, int word, long mask) {
+		if (concurrent) {
+			WORDS.getAndBitwiseAnd(bits, word, ~mask);
+		} else {
+			bits[word] &= ~mask;
+		}
+	}
+
+	/**
+	 * Remove whatever is at the given location.
+	 * 
 	 * @param col
 	 *            Column coordinate of the location.
+	 * @param row
+	 *            Row coordinate of the location.
+	 */
+	public void remove(int col, int row) {
+		int word = wordOf(col, row);
+		long bit = 1L << (col + 1);
+		if ((occupiedBits[word] & bit) != 0) {
+			int index = index(col, row);
+			clearBits(speciesBits[species[index]], word, bit);
+			clearBits(occupiedBits, word, bit);
+		}
+	}
+
+	/**
+	 * @return Where a position is in the board.
+	 */
+	private int index(int col, int row) {
+		switch (layout) {
+		case ROW_MAJOR:
+			return row * width + col;
+		case TILED:
+			int tile = (row >>> TILE_SHIFT) * tilesAcross + (col >>> TILE_SHIFT);
+			return (tile << (2 * TILE_SHIFT)) | ((row & TILE_MASK) << TILE_SHIFT)
+					| (col & TILE_MASK);
+		default:
+			return spread(col) | (spread(row) << 1);
+		}
+	}
+
+	/**
+	 * @return The bits of a column or row spread out to the even bits, as
+	 *         they are in a Morton index.
 	 */
-	public void put(Object obj, int col, int row) {
-		put(obj, new Location(col, row));
+	private static int spread(int x) {
+		x = (x | (x << 8)) & 0x00FF00FF;
+		x = (x | (x << 4)) & 0x0F0F0F0F;
+		x = (x | (x << 2)) & 0x33333333;
+		x = (x | (x << 1)) & 0x55555555;
+		return x;
+	}
+
+	/**
+	 * Remove whatever is at the given cell.
+	 * 
+	 * @param cell
+	 *            The packed cell, as made by toCell.
+	 */
+	public void remove(long cell) {
+		remove(colOf(cell), rowOf(cell));
 	}
 
 	public boolean isInGrid(Location loc) {
@@ -102,45 +494,130 @@ public class Field implements Serializable {
 	}
 	
 	public boolean isInGrid(int row, int col) {
-		return ((row >= 0) && (row < this.width) &&
-				(col >= 0) && (col < this.height));
+		return ((row >= 0) && (row < this.height) &&
+				(col >= 0) && (col < this.width));
 	}
 	
 	/**
-	 * Place an animal at the given location. If there is already an animal at
-	 * the location it will be lost.
+	 * Return the slot of the animal at the given location, if any.
 	 * 
-	 * @param animal
-	 *            The animal to be placed.
-	 * @param location
-	 *            Where to place the animal.
+	 * @param col
+	 *            The desired column.
+	 * @param row
+	 *            The desired row.
+	 * @return The slot of the animal at the given location, or EMPTY if there
+	 *         is none.
 	 */
-	public void put(Object obj, Location location) {
-		board[location.getCol()][location.getRow()] = obj;
+	public int getOccupant(int col, int row) {
+		return isEmpty(col, row) ? EMPTY : board[index(col, row)];
 	}
 
 	/**
-	 * Return the animal at the given location, if any.
+	 * Return the slot of the animal at the given cell, if any.
 	 * 
-	 * @param location
-	 *            Where in the field.
-	 * @return The animal at the given location, or null if there is none.
+	 * @param cell
+	 *            The packed cell, as made by toCell.
+	 * @return The slot of the animal at the given cell, or EMPTY if there is
+	 *         none.
 	 */
-	public Object getObjectAt(Location location) {
-		return getObjectAt(location.getCol(), location.getRow());
+	public int getOccupant(long cell) {
+		return getOccupant(colOf(cell), rowOf(cell));
 	}
 
 	/**
-	 * Return the animal at the given location, if any.
+	 * Return the species of the animal at the given location, if any.
 	 * 
+	 * @param col
+	 *            The desired column.
 	 * @param row
 	 *            The desired row.
+	 * @return The species of the animal at the given location, or EMPTY if
+	 *         there is none.
+	 */
+	public int getSpeciesAt(int col, int row) {
+		return isEmpty(col, row) ? EMPTY : species[index(col, row)];
+	}
+
+	/**
+	 * Return the species of the animal at the given cell, if any.
+	 * 
+	 * @param cell
+	 *            The packed cell, as made by toCell.
+	 * @return The species of the animal at the given cell, or EMPTY if there
+	 *         is none.
+	 */
+	public int getSpeciesAt(long cell) {
+		return getSpeciesAt(colOf(cell), rowOf(cell));
+	}
+
+	/**
+	 * Return the species of the animal at the given location, if any.
+	 * 
+	 * @param location
+	 *            Where in the field.
+	 * @return The species of the animal at the given location, or EMPTY if
+	 *         there is none.
+	 */
+	public int getSpeciesAt(Location location) {
+		return getSpeciesAt(location.getCol(), location.getRow());
+	}
+
+	/**
+	 * Pack a column and row into a single cell value. The engine passes cells
+	 * around instead of Location objects so that moving an animal or looking
+	 * at its neighbours allocates nothing. Any column and row that fit in an
+	 * int can be packed, so there is no limit on the size of the field.
+	 * 
 	 * @param col
-	 *            The desired column.
-	 * @return The animal at the given location, or null if there is none.
+	 *            The column.
+	 * @param row
+	 *            The row.
+	 * @return The packed cell.
 	 */
-	public Object getObjectAt(int col, int row) {
-		return board[col][row];
+	static long toCell(int col, int row) {
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return The column of a packed cell.
+	 */
+	static int colOf(long cell) {
+		return (int) cell;
+	}
+
+	/**
+	 * @return The row of a packed cell.
+	 */
+	static int rowOf(long cell) {
+		return (int) (cell >> 32);
+	}
+
+	/**
+	 * Return the occupant recorded for an animal born during a step, before
+	 * it has a slot of its own (see StepContext). Pending occupants are all
+	 * below EMPTY, so they are never mistaken for a slot or an empty position.
+	 * 
+	 * @param index
+	 *            The newborn's place in the nursery of the context that
+	 *            bore it.
+	 * @return The pending occupant.
+	 */
+	static int pendingOccupant(int index) {
+		return EMPTY - 1 - index;
+	}
+
+	/**
+	 * @return Whether an occupant is a newborn still waiting for its slot.
+	 */
+	static boolean isPending(int occupant) {
+		return occupant < EMPTY;
+	}
+
+	/**
+	 * @return The nursery index of a pending occupant.
+	 */
+	static int pendingIndex(int occupant) {
+		return EMPTY - 1 - occupant;
 	}
 
 	/**
@@ -150,22 +627,39 @@ public class Field implements Serializable {
 	 * 
 	 * @param location
 	 *            The location from which to generate an adjacency.
+	 * @param rand
+	 *            The random stream to draw from.
 	 * @return A valid location within the grid area. This may be the same
 	 *         object as the location parameter.
 	 */
-	public Location randomAdjacentLocation(Location location) {
-		int row = location.getRow();
-		int col = location.getCol();
+	public Location randomAdjacentLocation(Location location, SplittableRandom rand) {
+		long cell = location.toCell();
+		long next = randomAdjacentCell(cell, rand);
+		return next == cell ? location : Location.fromCell(next);
+	}
+
+	/**
+	 * Generate a random cell that is adjacent to the given cell, or is the
+	 * same cell. The returned cell will be within the valid bounds of the
+	 * field.
+	 * 
+	 * @param cell
+	 *            The packed cell from which to generate an adjacency.
+	 * @param rand
+	 *            The random stream to draw from.
+	 * @return A valid packed cell within the grid area.
+	 */
+	public long randomAdjacentCell(long cell, SplittableRandom rand) {
+		int row = rowOf(cell);
+		int col = colOf(cell);
 		// Generate an offset of -1, 0, or +1 for both the current row and col.
 		int nextRow = row + rand.nextInt(3) - 1;
 		int nextCol = col + rand.nextInt(3) - 1;
 		// Check in case the new location is outside the bounds.
 		if (nextRow < 0 || nextRow >= height || nextCol < 0 || nextCol >= width) {
-			return location;
-		} else if (nextRow != row || nextCol != col) {
-			return new Location(nextCol, nextRow);
+			return cell;
 		} else {
-			return location;
+			return toCell(nextCol, nextRow);
 		}
 	}
 
@@ -177,27 +671,143 @@ public class Field implements Serializable {
 	 * 
 	 * @param location
 	 *            The location from which to generate an adjacency.
+	 * @param rand
+	 *            The random stream that decides the order in which to look.
 	 * @return A valid location within the grid area. This may be the same
 	 *         object as the location parameter, or null if all locations around
 	 *         are full.
 	 */
-	public Location freeAdjacentLocation(Location location) {
-		List<Location> adjacent = adjacentLocations(location);
-		for (Location next : adjacent) {
-			if (board[next.getCol()][next.getRow()] == null) {
-				return next;
+	public Location freeAdjacentLocation(Location location, SplittableRandom rand) {
+		long cell = location.toCell();
+		long free = freeAdjacentCell(cell, rand);
+		if (free == NO_CELL) {
+			return null;
+		}
+		return free == cell ? location : Location.fromCell(free);
+	}
+
+	/**
+	 * Try to find a free cell that is adjacent to the given cell. If there is
+	 * none, then return the current cell if it is free. If not, return
+	 * NO_CELL. The returned cell will be within the valid bounds of the field.
+	 * 
+	 * @param cell
+	 *            The packed cell from which to generate an adjacency.
+	 * @param rand
+	 *            The random stream that decides the order in which to look.
+	 * @return A valid packed cell within the grid area, or NO_CELL if all
+	 *         cells around are full.
+	 */
+	public long freeAdjacentCell(long cell, SplittableRandom rand) {
+		int col = colOf(cell);
+		int row = rowOf(cell);
+		int[] order = randomNeighbourOrder(rand);
+		int free = ~occupiedAround(col, row);
+		if ((free & NEIGHBOUR_BITS) != 0) {
+			for (int i = 0; i < order.length; i++) {
+				if ((free & DIRECTION_BITS[order[i]]) != 0) {
+					return toCell(col + COLUMN_CHANGES[order[i]], row
+							+ ROW_CHANGES[order[i]]);
+				}
 			}
 		}
-		// check whether current location is free
-		if (board[location.getCol()][location.getRow()] == null) {
-			return location;
+		// check whether current cell is free
+		if ((free & DIRECTION_BITS[STAY]) != 0) {
+			return cell;
 		} else {
-			return null;
+			return NO_CELL;
 		}
 	}
 
-	public Location freeAdjacentLocation(int x, int y) {
-		return freeAdjacentLocation(new Location(x, y));
+	/**
+	 * Find which of the positions around a location, and the location
+	 * itself, hold any of the given species. Positions off the field never
+	 * do.
+	 * 
+	 * @param col
+	 *            The column of the location.
+	 * @param row
+	 *            The row of the location.
+	 * @param speciesMask
+	 *            The species to look for, one bit per species id.
+	 * @return A bit for each position that holds one of them, as given for
+	 *         its direction by DIRECTION_BITS.
+	 */
+	int speciesAround(int col, int row, int speciesMask) {
+		int around = 0;
+		while (speciesMask != 0) {
+			around |= around(speciesBits[Integer.numberOfTrailingZeros(speciesMask)],
+					col, row);
+			speciesMask &= speciesMask - 1;
+		}
+		return around;
+	}
+
+	/**
+	 * Find which of the positions around a location, and the location
+	 * itself, are occupied. Positions off the field always are.
+	 * 
+	 * @param col
+	 *            The column of the location.
+	 * @param row
+	 *            The row of the location.
+	 * @return A bit for each occupied position, as given for its direction
+	 *         by DIRECTION_BITS.
+	 */
+	int occupiedAround(int col, int row) {
+		return around(occupiedBits, col, row);
+	}
+
+	/**
+	 * @return The bits of a bitboard around a location, as given for each
+	 *         direction by DIRECTION_BITS.
+	 */
+	private int around(long[] bits, int col, int row) {
+		// Columns col - 1 to col + 1 are bits col to col + 2 of a row, and
+		// the row above the location is row of the bitboard.
+		int word = row * rowWords + (col >>> 6);
+		int offset = col & 63;
+		return three(bits, word, offset)
+				| three(bits, word + rowWords, offset) << 3
+				| three(bits, word + 2 * rowWords, offset) << 6;
+	}
+
+	/**
+	 * @return Three bits of a bitboard, starting at a bit of a word and
+	 *         running on into the next word if need be.
+	 */
+	private static int three(long[] bits, int word, int offset) {
+		long three = bits[word] >>> offset;
+		if (offset > 61) {
+			three |= bits[word + 1] << (64 - offset);
+		}
+		return (int) three & 7;
+	}
+
+	/**
+	 * @return A bit for each position around a location, and the location
+	 *         itself, that is on the field, as given for its direction by
+	 *         DIRECTION_BITS.
+	 */
+	int legalAround(int col, int row) {
+		int legal = 0x1FF;
+		if (row == 0) {
+			legal &= ~0x007;
+		}
+		if (row == height - 1) {
+			legal &= ~0x1C0;
+		}
+		if (col == 0) {
+			legal &= ~0x049;
+		}
+		if (col == width - 1) {
+			legal &= ~0x124;
+		}
+		return legal;
+	}
+
+	public Location freeAdjacentLocation(int x, int y, SplittableRandom rand) {
+		return freeAdjacentLocation(new Location(x, y), rand);
 	}
 
 	/**
@@ -207,31 +817,42 @@ public class Field implements Serializable {
 	 * 
 	 * @param location
 	 *            The location from which to generate adjacencies.
+	 * @param rand
+	 *            The random stream that decides the order.
 	 * @return An iterator over locations adjacent to that given.
 	 */
-	public List<Location> adjacentLocations(Location location) {
+	public List<Location> adjacentLocations(Location location, SplittableRandom rand) {
 		int row = location.getRow();
 		int col = location.getCol();
-		List<Location> locations = new LinkedList<Location>();
-		for (int roffset = -1; roffset <= 1; roffset++) {
-			int nextRow = row + roffset;
-			if (nextRow >= 0 && nextRow < height) {
-				for (int coffset = -1; coffset <= 1; coffset++) {
-					int nextCol = col + coffset;
-					// Exclude invalid locations and the original location.
-					if (nextCol >= 0 && nextCol < width
-							&& (roffset != 0 || coffset != 0)) {
-						locations.add(new Location(nextCol, nextRow));
-					}
-				}
+		int[] order = randomNeighbourOrder(rand);
+		List<Location> locations = new ArrayList<Location>(order.length);
+		for (int i = 0; i < order.length; i++) {
+			int nextCol = col + COLUMN_CHANGES[order[i]];
+			int nextRow = row + ROW_CHANGES[order[i]];
+			if (isLegalLocation(nextCol, nextRow)) {
+				locations.add(new Location(nextCol, nextRow));
 			}
 		}
-		Collections.shuffle(locations, rand);
 		return locations;
 	}
 
-	public List<Location> adjacentLocations(int x, int y) {
-		return adjacentLocations(new Location(x, y));
+	public List<Location> adjacentLocations(int x, int y, SplittableRandom rand) {
+		return adjacentLocations(new Location(x, y), rand);
+	}
+
+	/**
+	 * Choose a random order in which to visit the neighbours of a location.
+	 * Callers step through the directions, adding COLUMN_CHANGES and
+	 * ROW_CHANGES to their own coordinates and skipping anything that is not
+	 * a legal location, so visiting a neighbourhood allocates nothing.
+	 * 
+	 * @param rand
+	 *            The random stream to draw from.
+	 * @return The eight directions in the order they should be visited. The
+	 *         array is shared and must not be modified.
+	 */
+	static int[] randomNeighbourOrder(SplittableRandom rand) {
+		return NEIGHBOUR_ORDERS[rand.nextInt(NEIGHBOUR_ORDERS.length)];
 	}
 
 	/**
@@ -243,6 +864,14 @@ public class Field implements Serializable {
 		return height;
 	}
 
+	/**
+	 * @return How the field's board is stored: ROW_MAJOR, TILED, MORTON or
+	 *         SPARSE.
+	 */
+	public int getLayout() {
+		return layout;
+	}
+
 	/**
 	 * Return the width of the field.
 	 * 
@@ -318,44 +947,50 @@ public class Field implements Serializable {
 	}
 
 	boolean isEmpty(int col, int row) {
-		return this.board[col][row] == null;
+		return (occupiedBits[wordOf(col, row)] & 1L << (col + 1)) == 0;
+	}
+
+	/**
+	 * Add the number of animals of each species on the field to a tally.
+	 * 
+	 * @param counts
+	 *            The tally, indexed by species id.
+	 */
+	void countSpecies(int[] counts) {
+		for (int s = 0; s < speciesBits.length; s++) {
+			long[] bits = speciesBits[s];
+			int count = 0;
+			for (int word = 0; word < bits.length; word++) {
+				count += Long.bitCount(bits[word]);
+			}
+			counts[s] += count;
+		}
 	}
 
 	boolean isEmpty(Location l) {
-		return isEmpty(l.getRow(), l.getCol());
+		return isEmpty(l.getCol(), l.getRow());
 	}
 
 	/**
 	 * Determines what can be seen from a given location, looking in a given
 	 * direction.
 	 * 
-	 * @param row
-	 *            the row of the object doing the looking
 	 * @param column
 	 *            the column of the object doing the looking
+	 * @param row
+	 *            the row of the object doing the looking
 	 * @param direction
-	 *            the direction of the look
-	 * @return the object seen, or null if nothing seen.
+	 *            the direction of the look, N to NW
+	 * @return the slot of the animal seen, or EMPTY if nothing seen.
 	 */
-	private Object look(int column, int row, int direction) {
-		// decode direction into its x-y components
-		int rowDelta = rowChange(direction);
-		int columnDelta = columnChange(direction);
-
-		// check in that direction until you see something
-		// (if nothing else, you will eventually see the edge of the
-		// array, thus the loop <i>will</i> terminate)
-		while (true) {
-			row = row + rowDelta;
-			column = column + columnDelta;
-			if (!isLegalLocation(row, column))
-				return null;
-			if (board[column][row] != null)
-				return board[column][row];
-		}
+	private int look(int column, int row, int direction) {
+		int steps = distance(column, row, direction);
+		column += COLUMN_CHANGES[direction] * steps;
+		row += ROW_CHANGES[direction] * steps;
+		return isLegalLocation(column, row) ? getOccupant(column, row) : EMPTY;
 	}
 
-	public Object getObjectInDirection(Location l, int d) {
+	public int getObjectInDirection(Location l, int d) {
 		return look(l.getCol(), l.getRow(), d);
 	}
 
@@ -363,35 +998,132 @@ public class Field implements Serializable {
 	 * Determines the distance to the nearest thing, or to the edge of the
 	 * field, looking in a given direction.
 	 * 
-	 * @param row
-	 *            the row of the object doing the looking
+	 * A step in any direction moves a fixed number of bits through the
+	 * occupied bitboard, and the positions around the field are marked
+	 * occupied there, so the look walks the bitboard with nothing to check
+	 * but one bit a step. Blocks the summaries show to be empty are crossed
+	 * in a single jump, so looking across an empty field takes a few jumps
+	 * rather than a step per position.
+	 * 
 	 * @param column
 	 *            the column of the object doing the looking
+	 * @param row
+	 *            the row of the object doing the looking
 	 * @param direction
-	 *            the direction of the look
-	 * @return the distance
-	 */
-	private int distance(int row, int column, int direction) {
-		// decode direction into its x-y components
-		int rowDelta = rowChange(direction);
-		int columnDelta = columnChange(direction);
-
-		// check in that direction until you see something
-		// (if nothing else, you will eventually see the edge of the
-		// array, thus the loop <i>will</i> terminate)
-		int steps = 0;
-		while (true) {
-			row = row + rowDelta;
-			column = column + columnDelta;
-			steps++;
-			if (!isLegalLocation(row, column) || board[column][row] != null) {
+	 *            the direction of the look, N to NW
+	 * @return the number of steps to the first occupied position, or to the
+	 *         first position off the field
+	 */
+	int distance(int column, int row, int direction) {
+		int columnDelta = COLUMN_CHANGES[direction];
+		int rowDelta = ROW_CHANGES[direction];
+		if (columnDelta == 0 && rowDelta == 0) {
+			throw new IllegalArgumentException("Can't look in direction "
+					+ direction);
+		}
+		long stride = (long) rowDelta * rowWords * 64 + columnDelta;
+
+		int steps = 1;
+		column += columnDelta;
+		row += rowDelta;
+		long bit = ((long) row + 1) * rowWords * 64 + column + 1;
+		// Nearby things are found quickest by just walking to them.
+		for (int i = 0; i < NEAR; i++) {
+			if ((occupiedBits[(int) (bit >>> 6)] & 1L << bit) != 0) {
 				return steps;
 			}
+			bit += stride;
+			steps++;
+		}
+		column += columnDelta * NEAR;
+		row += rowDelta * NEAR;
+		while (isLegalLocation(column, row)) {
+			int shift = emptyShift(column, row);
+			if (shift < 0) {
+				// Something may be in this block: walk through it a bit
+				// at a time. Walking off the field stops at the fence.
+				int walk = Math.min(stepsOut(column, columnDelta, BLOCK_SHIFT),
+						stepsOut(row, rowDelta, BLOCK_SHIFT));
+				for (int i = 0; i < walk; i++) {
+					if ((occupiedBits[(int) (bit >>> 6)] & 1L << bit) != 0) {
+						return steps;
+					}
+					bit += stride;
+					steps++;
+				}
+				column += columnDelta * walk;
+				row += rowDelta * walk;
+				continue;
+			}
+			// Jump to the first position outside the empty block, or off
+			// the field if that comes first.
+			int jump = Math.min(stepsOut(column, columnDelta, shift),
+					stepsOut(row, rowDelta, shift));
+			jump = Math.min(jump, Math.min(stepsOff(column, columnDelta, width),
+					stepsOff(row, rowDelta, height)));
+			column += columnDelta * jump;
+			row += rowDelta * jump;
+			bit += stride * jump;
+			steps += jump;
 		}
+		return steps;
 	}
 
 	public int distanceToObject(Location l, int d) {
-		return distance(l.getRow(), l.getCol(), d);
+		return distance(l.getCol(), l.getRow(), d);
+	}
+
+	/**
+	 * @return The number of steps a column or row has to take, changing by
+	 *         delta each step, to leave the aligned block of side 1 << shift
+	 *         it is in.
+	 */
+	static int stepsOut(int x, int delta, int shift) {
+		if (delta > 0) {
+			return ((x >>> shift) + 1 << shift) - x;
+		} else if (delta < 0) {
+			return x - (x >>> shift << shift) + 1;
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return The number of steps a column or row has to take, changing by
+	 *         delta each step, to leave the range 0 to size - 1.
+	 */
+	static int stepsOff(int x, int delta, int size) {
+		if (delta > 0) {
+			return size - x;
+		} else if (delta < 0) {
+			return x + 1;
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Find the biggest aligned square block around a position that the
+	 * summaries show to be empty, for looks to jump across.
+	 * 
+	 * @param col
+	 *            The column of the position.
+	 * @param row
+	 *            The row of the position.
+	 * @return The side of the block is 1 << the value returned, or -1 if
+	 *         anything in the aligned block of side 1 << BLOCK_SHIFT around
+	 *         the position may be occupied.
+	 */
+	private int emptyShift(int col, int row) {
+		// Blocks only get bigger, so stop at the first one that isn't empty.
+		int empty = -1;
+		for (int level = SUMMARY_SHIFTS.length - 1; level >= 0; level--) {
+			int shift = SUMMARY_SHIFTS[level];
+			int block = (row >>> shift) * summaryAcross[level] + (col >>> shift);
+			if ((summaryBits[level][block >>> 6] & 1L << block) != 0) {
+				break;
+			}
+			empty = shift;
+		}
+		return empty;
 	}
 
 	/**
@@ -1,9 +1,18 @@
 
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Arrays;
 import processing.core.*;
 
+/**
+ * Draws a field in a Processing window. By default the field is drawn as an
+ * image with one pixel per cell, scaled up to fill the display, so a frame
+ * costs a single image() call however big the field is. The image is kept
+ * from frame to frame, and only the pixels of cells whose occupant has
+ * changed since the last frame are rewritten and sent to the screen. When
+ * the caller says which version of the field it is drawing, a version
+ * already drawn isn't looked at again at all.
+ * Turning pixel mode off draws a rectangle for every cell instead.
+ */
 public class FieldDisplay {
     // Colors used for empty locations.
     private static final int EMPTY_COLOR = 0xFFFFFFFF;
@@ -18,9 +27,33 @@ public class FieldDisplay {
     private float dx, dy;  // calculate the width and height of each box
     // in the field display using the size of the field
     // and the width and height of the display
+
+    // The size of the field the boxes were calculated for
+    private int fieldWidth, fieldHeight;
     
-    // A map for storing colors for participants in the simulation
-    private Map<Class, Integer> colors;
+    // The color for each species in the simulation, indexed by species id
+    private int[] colors;
+
+    // Whether to draw through the image rather than cell by cell
+    private boolean pixelMode = true;
+
+    // The field drawn as one pixel per cell, a row at a time
+    private PImage image;
+
+    // The species last drawn in each cell, in the same order as the image,
+    // or UNDRAWN if the cell's pixel is out of date
+    private int[] shown;
+
+    // Marks a cell whose pixel has to be drawn whatever is in it
+    private static final int UNDRAWN = -2;
+
+    // The version of a field whose version isn't known
+    private static final int ANY_VERSION = -1;
+
+    // The version of the field the image shows, and whether the image has
+    // to be brought up to date whatever the version
+    private int drawnVersion = ANY_VERSION;
+    private boolean stale = true;
 
     public FieldDisplay(PApplet p, Simulator s) {
         this(p, s.getField());
@@ -39,21 +72,109 @@ public class FieldDisplay {
         this.p = p;
         this.f = f;
 
-        this.dx = w / f.getWidth();
-        this.dy = h / f.getHeight();
+        fitTo(f.getWidth(), f.getHeight());
 
-        colors = new LinkedHashMap<Class, Integer>();
+        colors = new int[Animal.SPECIES_COUNT];
+        Arrays.fill(colors, UNKNOWN_COLOR);
     }
 
     public void drawField(Field f) {
-        Object animal;
-        Integer animalColor;
-        for (int i = 0; i < f.getWidth(); i++) {
-            for (int j = 0; j < f.getHeight(); j++) {
-                animal = f.getObjectAt(i, j);
-                if (animal != null) {
-                    animalColor = getColor(animal.getClass());
-                    p.fill(animalColor);
+        draw(f, null, f.getWidth(), f.getHeight(), ANY_VERSION);
+    }
+
+    /**
+     * Draw a field, skipping the cells if this version was the last drawn.
+     * @param f The field to draw.
+     * @param version Counts up whenever the field may have changed.
+     */
+    void drawField(Field f, int version) {
+        draw(f, null, f.getWidth(), f.getHeight(), version);
+    }
+
+    /**
+     * Draw a field as pictured in a frame taken on another thread.
+     * @param frame The frame to draw.
+     */
+    void drawFrame(Frame frame) {
+        draw(null, frame.species, frame.width, frame.height, frame.version);
+    }
+
+    /**
+     * Draw either a field or the species of its cells, a row at a time.
+     */
+    private void draw(Field f, byte[] cells, int fw, int fh, int version) {
+        // A loaded snapshot can hold a field of another size.
+        if (fw != fieldWidth || fh != fieldHeight) {
+            fitTo(fw, fh);
+        }
+        if (!pixelMode) {
+            drawCells(f, cells, fw, fh);
+            return;
+        }
+        if (image == null || image.width != fw || image.height != fh) {
+            image = p.createImage(fw, fh, PApplet.RGB);
+            shown = new int[fw * fh];
+            Arrays.fill(shown, UNDRAWN);
+            stale = true;
+        }
+        if (stale || version == ANY_VERSION || version != drawnVersion) {
+            updateImage(f, cells, fw, fh);
+            drawnVersion = version;
+            stale = false;
+        }
+        // Scaled up with smoothing, each cell would blur into its neighbours.
+        p.noSmooth();
+        p.image(image, x, y, w, h);
+        p.smooth();
+    }
+
+    /**
+     * Rewrite the pixels of the cells that have changed, and send the
+     * rectangle they lie in to the screen.
+     */
+    private void updateImage(Field f, byte[] cells, int fw, int fh) {
+        int left = fw, right = -1, top = fh, bottom = -1;
+        image.loadPixels();
+        for (int row = 0; row < fh; row++) {
+            int i = row * fw;
+            for (int col = 0; col < fw; col++, i++) {
+                int species = f != null ? f.getSpeciesAt(col, row) : cells[i];
+                if (shown[i] != species) {
+                    shown[i] = species;
+                    image.pixels[i] = species == Field.EMPTY ? EMPTY_COLOR
+                            : colors[species];
+                    left = Math.min(left, col);
+                    right = Math.max(right, col);
+                    top = Math.min(top, row);
+                    bottom = row;
+                }
+            }
+        }
+        if (right >= 0) {
+            image.updatePixels(left, top, right - left + 1, bottom - top + 1);
+        }
+    }
+
+    /**
+     * Work out the size of each box for a field of the given size.
+     */
+    private void fitTo(int fw, int fh) {
+        fieldWidth = fw;
+        fieldHeight = fh;
+        dx = (float) w / fw;
+        dy = (float) h / fh;
+    }
+
+    /**
+     * Draw the field a rectangle per cell.
+     */
+    private void drawCells(Field f, byte[] cells, int fw, int fh) {
+        int species;
+        for (int i = 0; i < fw; i++) {
+            for (int j = 0; j < fh; j++) {
+                species = f != null ? f.getSpeciesAt(i, j) : cells[j * fw + i];
+                if (species != Field.EMPTY) {
+                    p.fill(colors[species]);
                     
                 } else {
                     p.fill(this.EMPTY_COLOR);
@@ -68,20 +189,32 @@ public class FieldDisplay {
      * @param animalClass The animal's Class object.
      * @param color The color to be used for the given class.
      */
-    public void setColor(Class animalClass, Integer color) {
-        colors.put(animalClass, color);
+    public void setColor(Class<?> animalClass, Integer color) {
+        int species = Animal.speciesOf(animalClass);
+        if (species != Field.EMPTY) {
+            colors[species] = color;
+            redrawAll();
+        }
+    }
+
+    /**
+     * Choose between drawing through an image, one pixel per cell, and
+     * drawing a rectangle per cell.
+     * @param pixelMode true to draw through an image.
+     */
+    public void setPixelMode(boolean pixelMode) {
+        this.pixelMode = pixelMode;
+        redrawAll();
     }
 
     /**
-     * @return The color to be used for a given class of animal.
+     * Make the next frame draw every cell, not just those that changed.
      */
-    private Integer getColor(Class animalClass) {
-        Integer col = colors.get(animalClass);
-        if (col == null) {  // no color defined for this class
-            return UNKNOWN_COLOR;
-        } else {
-            return col;
+    public void redrawAll() {
+        if (shown != null) {
+            Arrays.fill(shown, UNDRAWN);
         }
+        stale = true;
     }
     
 	public Location gridLocationAt(float mx, float my) {
@@ -1,49 +1,52 @@
-
-
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-
-import processing.core.PApplet;
 
 /**
  * This class collects and provides some statistical data on the state 
- * of a field. It is flexible: it will create and maintain a counter 
- * for any class of object that is found within the field.
+ * of a field. The counts are not found by looking through the field:
+ * the population keeps a count of the live animals of each species,
+ * updated as animals are born and die, so every question asked here
+ * is answered in time proportional to the number of species.
+ * 
+ * In debug mode every answer is also checked against a full scan of
+ * the field, which is slow but catches any count that has drifted.
  * 
  * @author David J. Barnes and Michael Kolling. Modified by David Dobervich 2007-2013
  * @version 2006.03.30
  */
 public class FieldStats {
 
-    // Current counts for all object types
-    // DANGER PUBLIC THING!  
-    private HashMap<Class, Counter> counts;
+    // The population whose animals are counted.
+    private Population population;
+
+    // One counter for each species, indexed by species id.
+    private Counter[] counters;
 
-    private boolean countsValid = false;
+    // Whether to check the counts against a scan of the field.
+    private boolean debug = false;
 
     /**
      * Construct a FieldStats object.
+     * @param population The population whose animals are counted.
      */
-    public FieldStats()
+    public FieldStats(Population population)
     {
-        // Set up a collection for counters for each type of animal that
-        // we might find
-        counts = new HashMap<Class, Counter>();
+        this.population = population;
+        counters = new Counter[Animal.SPECIES_COUNT];
+        for(int species = 0; species < counters.length; species++) {
+            counters[species] = new Counter(Animal.speciesClass(species));
+        }
     }
 
     /**
      * Get details of what is in the field.
+     * @param field The field the population occupies.
      * @return A string describing what is in the field.
      */
     public String getPopulationDetails(Field field)
     {
         StringBuffer buffer = new StringBuffer();
-        if(!countsValid) {
-            generateCounts(field);
-        }
-        for(Class key : counts.keySet()) {
-            Counter info = counts.get(key);
+        for(Counter info : getCounts(field)) {
             buffer.append(info.getName());
             buffer.append(": ");
             buffer.append(info.getCount());
@@ -51,90 +54,99 @@ public class FieldStats {
         }
         return buffer.toString();
     }
-    
+
     /**
-     * Invalidate the current set of statistics; reset all 
-     * counts to zero.
+     * Determine whether the simulation is still viable.
+     * I.e., should it continue to run.
+     * @param field The field the population occupies.
+     * @return true If there is more than one species alive.
      */
-    public void reset()
+    public boolean isViable(Field field)
     {
-        countsValid = false;
-        for(Class key : counts.keySet()) {
-            Counter count = counts.get(key);
-            count.reset();
+        checkCounts(field);
+        // How many counts are non-zero.
+        int nonZero = 0;
+        for(int species = 0; species < Animal.SPECIES_COUNT; species++) {
+            if(population.getCount(species) > 0) {
+                nonZero++;
+            }
         }
+        return nonZero > 1;
     }
 
     /**
-     * Increment the count for one class of animal.
-     * @param animalClass The class of animal to increment.
+     * @param species A species id.
+     * @return The number of live animals of that species.
      */
-    public void incrementCount(Class animalClass)
+    public int getCount(int species)
     {
-        Counter count = counts.get(animalClass);
-        if(count == null) {
-            // We do not have a counter for this species yet.
-            // Create one.
-            count = new Counter(animalClass);
-            counts.put(animalClass, count);
-        }
-
-        count.increment();
+        return population.getCount(species);
     }
 
     /**
-     * Indicate that an animal count has been completed.
+     * Count the animals of each species by looking at every occupied
+     * location in the field. This is what the incremental counts are checked
+     * against in debug mode.
+     * @param field The field to generate the stats for.
+     * @return The number of animals of each species, indexed by species id.
      */
-    public void countFinished()
+    public int[] generateCounts(Field field)
     {
-        countsValid = true;
+        int[] counts = new int[Animal.SPECIES_COUNT];
+        field.countSpecies(counts);
+        return counts;
     }
 
     /**
-     * Determine whether the simulation is still viable.
-     * I.e., should it continue to run.
-     * @return true If there is more than one species alive.
+     * @return The counters for every species.
      */
-    public boolean isViable(Field field)
-    {
-        // How many counts are non-zero.
-        int nonZero = 0;
-        if(!countsValid) {
-            generateCounts(field);
+    public Collection<Counter> getCounts() {
+        for(int species = 0; species < counters.length; species++) {
+            counters[species].setCount(population.getCount(species));
         }
+        return Arrays.asList(counters);
+    }
 
-        for(Class key : counts.keySet()) {
-            Counter info = counts.get(key);
-            if(info.getCount() > 0) {
-                nonZero++;
-            }
-        }
+    /**
+     * Get the counters for every species, checking them against the
+     * field first in debug mode.
+     * @param field The field the population occupies.
+     * @return The counters for every species.
+     */
+    public Collection<Counter> getCounts(Field field) {
+        checkCounts(field);
+        return getCounts();
+    }
 
-        return nonZero > 1;
+    /**
+     * Turn checking of the counts against a full scan of the field
+     * on or off.
+     * @param debug true to check on every question.
+     */
+    public void setDebug(boolean debug)
+    {
+        this.debug = debug;
     }
-    
+
     /**
-     * Generate counts of the number of foxes and rabbits.
-     * These are not kept up to date as foxes and rabbits
-     * are placed in the field, but only when a request
-     * is made for the information.
-     * @param field The field to generate the stats for.
+     * In debug mode, make sure the incremental counts agree with
+     * what is actually in the field.
+     * @param field The field the population occupies.
+     * @throws IllegalStateException If a count has drifted.
      */
-    public void generateCounts(Field field)
+    private void checkCounts(Field field)
     {
-        reset();
-        for(int row = 0; row < field.getHeight(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Object animal = field.getObjectAt(col, row);
-                if(animal != null) {
-                    incrementCount(animal.getClass());
-                }
+        if(!debug) {
+            return;
+        }
+        int[] scanned = generateCounts(field);
+        for(int species = 0; species < scanned.length; species++) {
+            if(scanned[species] != population.getCount(species)) {
+                throw new IllegalStateException("Count of "
+                        + Animal.speciesClass(species).getName() + " is "
+                        + population.getCount(species) + " but the field holds "
+                        + scanned[species]);
             }
         }
-        countsValid = true;
-    }
-    
-    public Collection<Counter> getCounts() {
-    	return this.counts.values();
     }
-}
\ No newline at end of file
+}
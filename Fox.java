@@ -1,119 +1,25 @@
-import java.io.Serializable;
-import java.util.List;
-import java.util.Iterator;
-import java.util.Random;
-
 /**
- * A simple model of a fox. Foxes age, move, eat rabbits, and die.
+ * A simple model of a fox. Foxes age, move, eat rabbits, and die. What a
+ * fox does is Animal.act(); this class holds the parameters that make it a
+ * fox, as new Parameters take them.
  * 
  * @author David J. Barnes and Michael Kolling.  Modified by David Dobervich 2007-2013.
  * @version 2006.03.30
  */
-public class Fox extends Animal implements Serializable {
-
-	private static final int RABBIT_FOOD_VALUE = 6;
-
-	private int foodLevel;
-
-	public Fox(boolean randomAge) {
-		super(randomAge);
-		if (randomAge) {
-			foodLevel = rand.nextInt(RABBIT_FOOD_VALUE);
-		} else {
-			// leave age at 0
-			foodLevel = RABBIT_FOOD_VALUE;
-		}
-		BREEDING_AGE = 3;
-	    MAX_AGE = 50;
-	    BREEDING_PROBABILITY = 0.05;
-	    MAX_LITTER_SIZE = 6;
-	    CREATION_PROBABILITY = 0.1;
-	}
-
-	/**
-	 * This is what the fox does most of the time: it hunts for rabbits. In the
-	 * process, it might breed, die of hunger, or die of old age.
-	 * 
-	 * @param currentField
-	 *            The field currently occupied.
-	 * @param updatedField
-	 *            The field to transfer to.
-	 * @param newFoxes
-	 *            A list to add newly born foxes to.
-	 */
-	public void act(Field currentField, Field updatedField, List<Animal> newAnimals) {
-		incrementAge();
-		incrementHunger();
-		if (alive) {
-			// New foxes are born into adjacent locations.
-			int births = breed();
-			for (int b = 0; b < births; b++) {
-				Fox newFox = new Fox(false);
-				newFox.setFoodLevel(this.foodLevel);
-				newAnimals.add(newFox);
-				Location loc = updatedField.randomAdjacentLocation(location);
-				newFox.setLocation(loc);
-				updatedField.put(newFox, loc);
-			}
-			// Move towards the source of food if found.
-			Location newLocation = findFood(currentField, location);
-			if (newLocation == null) { // no food found - move randomly
-				newLocation = updatedField.freeAdjacentLocation(location);
-			}
-			if (newLocation != null) {
-				setLocation(newLocation);
-				updatedField.put(this, newLocation);
-			} else {
-				// can neither move nor stay - overcrowding - all locations
-				// taken
-				alive = false;
-			}
-		}
-	}
-
-
-
-	/**
-	 * Make this fox more hungry. This could result in the fox's death.
-	 */
-	private void incrementHunger() {
-		foodLevel--;
-		if (foodLevel <= 0) {
-			alive = false;
-		}
-	}
-
-	/**
-	 * Tell the fox to look for rabbits adjacent to its current location. Only
-	 * the first live rabbit is eaten.
-	 * 
-	 * @param field
-	 *            The field in which it must look.
-	 * @param location
-	 *            Where in the field it is located.
-	 * @return Where food was found, or null if it wasn't.
-	 */
-	private Location findFood(Field field, Location location) {
-		List<Location> adjacentLocations = field.adjacentLocations(location);
-
-		for (Location where : adjacentLocations) {
-			Object animal = field.getObjectAt(where);
-			if (animal instanceof Rabbit) {
-				Rabbit rabbit = (Rabbit) animal;
-				if (rabbit.isAlive()) {
-					rabbit.setEaten();
-					foodLevel = RABBIT_FOOD_VALUE;
-					return where;
-				}
-			}
-		}
-
-		return null;
+public class Fox extends Animal {
+	// Characteristics shared by all foxes.
+	static final int BREEDING_AGE = 3;
+	static final int MAX_AGE = 50;
+	static final double BREEDING_PROBABILITY = 0.05;
+	static final int MAX_LITTER_SIZE = 6;
+	static final double CREATION_PROBABILITY = 0.1;
+	// Foxes act in the first pass of a step.
+	static final int ACTING_PASS = 0;
+	// Foxes eat rabbits.
+	static final int DIET = 1 << RABBIT;
+	// The food value of a single fox to whatever eats it.
+	static final int FOOD_VALUE = 6;
+
+	private Fox() {
 	}
-
-
-	public void setFoodLevel(int fl) {
-		this.foodLevel = fl;
-	}
-
 }
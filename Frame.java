@@ -0,0 +1,54 @@
+/**
+ * A picture of the simulation at the end of one step, for drawing on
+ * another thread: the species in every cell, a row at a time, and the
+ * number of each species alive. A frame is filled on the simulation thread
+ * and then handed over whole, so the drawing thread never looks at the
+ * engine itself (see Simulator).
+ */
+class Frame {
+	/** The step the frame shows */
+	int step;
+	/** Counts up each time the simulation starts again, so that whoever
+	 *  draws the frame knows to clear the graph */
+	int generation;
+	/** Counts up with every frame filled, so that whoever draws the frames
+	 *  can tell one it has already drawn */
+	int version;
+	/** The size of the field */
+	int width, height;
+	/** The species in each cell, a row at a time, or Field.EMPTY */
+	byte[] species = new byte[0];
+	/** The number of animals of each species alive */
+	final int[] counts = new int[Animal.SPECIES_COUNT];
+
+	/**
+	 * Fill the frame from an engine between steps.
+	 *
+	 * @param engine
+	 *            The engine to picture.
+	 * @param generation
+	 *            The number of times the simulation has started again.
+	 * @param version
+	 *            The number of frames filled before this one.
+	 */
+	void capture(SimulationEngine engine, int generation, int version) {
+		Field field = engine.getField();
+		step = engine.getStep();
+		this.generation = generation;
+		this.version = version;
+		width = field.getWidth();
+		height = field.getHeight();
+		if (species.length != width * height) {
+			species = new byte[width * height];
+		}
+		int i = 0;
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				species[i++] = (byte) field.getSpeciesAt(col, row);
+			}
+		}
+		for (int s = 0; s < counts.length; s++) {
+			counts[s] = engine.getStats().getCount(s);
+		}
+	}
+}
@@ -1,10 +1,18 @@
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Set;
 import processing.core.PApplet;
 import processing.core.PFont;
 
 /**
  * The Graph class represents and draws a 2d line graph
+ * 
+ * Each series is numbered, and its data set and colour are found by that
+ * number in an array. Series can also be named by any key object, which is
+ * looked up once to find its number; a graph should be plotted either by
+ * key or by number, not both. Only a summary of each series is drawn, one
+ * pixel column at a time (see ScaledDataSet), so drawing takes the same
+ * time however long the run has been going.
+ * 
  * @author David
  *
  */
@@ -22,9 +30,13 @@ public class Graph {
 	// when it needs to clear data during a wrap
 	private boolean cleardata = false;
 	
-	// DataSets for all past numbers of animals at any timestep
-	private HashMap<Object, ScaledDataSet> dataSets;
-	private HashMap<Object, Integer> colorMap;
+	// DataSets for all past numbers of animals at any timestep, indexed
+	// by series, or null for a series with no points yet
+	private ScaledDataSet[] dataSets;
+	// The color of each series, or null if none has been chosen
+	private Integer[] colors;
+	// The number of each series named by a key
+	private HashMap<Object, Integer> seriesNumbers;
 	private static int[] defaultColors;
 	private int nextColor = 0;
 	public boolean drawLines = false;
@@ -50,8 +62,9 @@ public class Graph {
 		this.ymax = ymax;
 		setDataRanges(dataxmin, dataxmax, dataymin, dataymax);
 		this.graphicsWindow = p;
-		this.dataSets = new HashMap<Object, ScaledDataSet>();
-		this.colorMap = new HashMap<Object, Integer>();
+		this.dataSets = new ScaledDataSet[0];
+		this.colors = new Integer[0];
+		this.seriesNumbers = new HashMap<Object, Integer>();
 		this.defaultColors = new int[3];
 		this.defaultColors[0] = p.color(255, 100, 100);
 		this.defaultColors[1] = p.color(100, 100, 255);
@@ -100,18 +113,36 @@ public class Graph {
 		drawXIncrementLabels();
 		drawYIncrementLabels();
 
-		for (Object f : dataSets.keySet()) {
-			d = dataSets.get(f);
-			c = this.colorMap.get(f);
+		for (int series = 0; series < dataSets.length; series++) {
+			d = dataSets[series];
+			if (d == null) {
+				continue;
+			}
+			c = getColor(series);
 			graphicsWindow.fill(c); // change the color
 			graphicsWindow.stroke(c); // change the color
-			for (int i = 1; i < d.getSize(); i++) {
+			// Draw each pixel column once: a stroke from its lowest point to
+			// its highest, joined to the column before.
+			int previous = -1;
+			for (int i = 0; i < d.getColumnCount(); i++) {
+				if (!d.hasColumn(i)) {
+					continue;
+				}
+				float x = d.getColumnX(i);
 				if (drawLines) {
-					graphicsWindow.line(d.getx(i - 1), d.gety(i - 1), d.getx(i), d.gety(i));
+					if (previous >= 0) {
+						graphicsWindow.line(d.getColumnX(previous),
+								d.getColumnLast(previous), x, d.getColumnFirst(i));
+					}
+					graphicsWindow.line(x, d.getColumnMin(i), x, d.getColumnMax(i));
 				}
 				if (drawPoints) {
-					graphicsWindow.ellipse(d.getx(i), d.gety(i), pointsize, pointsize);
+					graphicsWindow.ellipse(x, d.getColumnMin(i), pointsize, pointsize);
+					if (d.getColumnMax(i) != d.getColumnMin(i)) {
+						graphicsWindow.ellipse(x, d.getColumnMax(i), pointsize, pointsize);
+					}
 				}
+				previous = i;
 			}
 		}
 		graphicsWindow.stroke(0);
@@ -201,6 +232,20 @@ public class Graph {
 	}
 
 	public void plotPoint(float x, float y, Object key) {
+		plotPoint(x, y, seriesNumber(key));
+	}
+
+	/**
+	 * Add a point to a numbered series.
+	 * 
+	 * @param x
+	 *          The x of the point, in data units.
+	 * @param y
+	 *          The y of the point, in data units.
+	 * @param series
+	 *          The number of the series.
+	 */
+	public void plotPoint(float x, float y, int series) {
 		if ((x > dataxmax) && (!wrap)) {
 			return;
 		}
@@ -231,36 +276,61 @@ public class Graph {
 			clearData();
 		}
 
-		if (dataSets.containsKey(key)) {
-			ScaledDataSet d = dataSets.get(key);
-			d.addPoint(x, y);
-		} else {
-			ScaledDataSet d = new ScaledDataSet();
+		ensureSeries(series);
+		ScaledDataSet d = dataSets[series];
+		if (d == null) {
+			d = new ScaledDataSet();
 			d.setxScaling(dataxmin, xmin, dataxmax, xmax);
 			d.setyScaling(dataymin, ymin, dataymax, ymax);
-			d.addPoint(x, y);
-			dataSets.put(key, d);
-			if (!colorMap.containsKey(key)) {
-				colorMap.put(key, this.getNextColor());
-			}
+			dataSets[series] = d;
 		}
+		d.addPoint(x, y);
 	}
 
-	// Clear all data sets. Re-create them empty
+	// Clear all data sets, keeping them for reuse
 	// with the current scaling factors.
 	private void clearData() {
-		ScaledDataSet d;
-		Set s = dataSets.keySet();
+		for (ScaledDataSet d : dataSets) {
+			if (d != null) {
+				d.clear();
+				d.setxScaling(dataxmin, xmin, dataxmax, xmax);
+				d.setyScaling(dataymin, ymin, dataymax, ymax);
+			}
+		}
+		cleardata = false;
+	}
 
-		dataSets.clear();
+	/**
+	 * @return The number of the series named by a key, giving it the next
+	 *         free number if it has none yet.
+	 */
+	private int seriesNumber(Object key) {
+		Integer series = seriesNumbers.get(key);
+		if (series == null) {
+			series = seriesNumbers.size();
+			seriesNumbers.put(key, series);
+		}
+		return series;
+	}
 
-		for (Object f : s) {
-			d = new ScaledDataSet();
-			d.setxScaling(dataxmin, xmin, dataxmax, xmax);
-			d.setyScaling(dataymin, ymin, dataymax, ymax);
-			dataSets.put(f, d);
+	/**
+	 * Make room for a series.
+	 */
+	private void ensureSeries(int series) {
+		if (series >= dataSets.length) {
+			dataSets = Arrays.copyOf(dataSets, series + 1);
+			colors = Arrays.copyOf(colors, series + 1);
 		}
-		cleardata = false;
+	}
+
+	/**
+	 * @return The color of a series, choosing one if none has been set.
+	 */
+	private int getColor(int series) {
+		if (colors[series] == null) {
+			colors[series] = getNextColor();
+		}
+		return colors[series];
 	}
 
 	private int getNextColor() {
@@ -294,7 +364,20 @@ public class Graph {
 	 *          The color to be used for the given class.
 	 */
 	public void setColor(Class animalClass, Integer color) {
-		colorMap.put(animalClass, color);
+		setColor(seriesNumber(animalClass), color);
+	}
+
+	/**
+	 * Define a color to be used for a numbered series.
+	 * 
+	 * @param series
+	 *          The number of the series.
+	 * @param color
+	 *          The color to be used for it.
+	 */
+	public void setColor(int series, int color) {
+		ensureSeries(series);
+		colors[series] = color;
 	}
 
 	public void clear() {
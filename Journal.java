@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * An append-only record of how the field changes from step to step, from
+ * which the field at any step of a long run can be rebuilt (see
+ * JournalReader). Full snapshots every step would be far too big, so after
+ * each step the journal records only the cells whose contents changed: a
+ * cell left empty by a death or a move, or a cell taken by a newborn, a
+ * mover or a predator. Every so often a keyframe, an ordinary Snapshot, is
+ * saved beside the journal, so a reader never has to replay more than one
+ * keyframe interval.
+ *
+ * The changes are found by comparing the population after a step with a
+ * copy of the field the journal keeps for itself, so the step itself does
+ * no extra work. Encoding a step is done on the simulation thread; writing
+ * it is done by a thread of the journal's own, fed through a bounded queue,
+ * so a slow disk only holds the simulation up once the queue is full.
+ *
+ * The file is a header followed by one record per step, little-endian:
+ *
+ * <pre>
+ * header:  int magic, version, width, height, layout
+ * record:  int step, changes
+ *          changes * (long cell, byte species or Field.EMPTY)
+ * </pre>
+ *
+ * A record with KEYFRAME for its number of changes marks a keyframe saved
+ * at that step, in the file named by keyframePath().
+ *
+ * A journal follows one run: close it before resetting the engine or
+ * loading a saved state into it.
+ */
+public class Journal implements StepListener {
+
+	/** The number of changes recorded for a keyframe */
+	static final int KEYFRAME = -1;
+
+	// Identifies a journal file: "FRJN".
+	static final int MAGIC = 0x4E4A5246;
+
+	// The version of the format written.
+	static final int VERSION = 1;
+
+	// The size of the file header, of a record header and of a change.
+	static final int HEADER_SIZE = 20;
+	static final int RECORD_HEADER_SIZE = 8;
+	static final int CHANGE_SIZE = 9;
+
+	// The number of encoded steps that can wait to be written.
+	private static final int QUEUE_CAPACITY = 16;
+
+	// The capacity of a new buffer, in bytes.
+	private static final int BUFFER_CAPACITY = 1 << 16;
+
+	// Handed to the writer to tell it to stop.
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	// The engine being followed.
+	private final SimulationEngine engine;
+
+	// Where the journal is written.
+	private final Path path;
+
+	// The number of steps between keyframes.
+	private final int keyframeInterval;
+
+	// The field as the journal last recorded it. Only the species in it are
+	// meaningful.
+	private final Field recorded;
+
+	// The cells of the animals as the journal last recorded them, and how
+	// many there were.
+	private long[] recordedCells;
+	private int recordedSize;
+
+	// Encoded steps waiting to be written, and buffers ready to be used
+	// again.
+	private final ArrayBlockingQueue<ByteBuffer> pending;
+	private final ArrayBlockingQueue<ByteBuffer> spare;
+
+	// Writes the encoded steps.
+	private final Thread writer;
+	private final FileChannel channel;
+
+	// The first thing that went wrong while writing, if anything has.
+	private volatile IOException failure;
+
+	/**
+	 * Start a journal of an engine's run, from its current step. A keyframe
+	 * is saved straight away, and the journal registers itself to hear about
+	 * every step from now on.
+	 *
+	 * @param engine
+	 *            The engine to follow.
+	 * @param path
+	 *            The file to write. It is replaced if it exists.
+	 * @param keyframeInterval
+	 *            The number of steps between keyframes. Must be greater than
+	 *            zero.
+	 * @throws IOException
+	 *             If the journal or the first keyframe can't be written.
+	 */
+	public Journal(SimulationEngine engine, Path path, int keyframeInterval)
+			throws IOException {
+		if (keyframeInterval < 1) {
+			throw new IllegalArgumentException("Keyframe interval "
+					+ keyframeInterval + " is less than one");
+		}
+		this.engine = engine;
+		this.path = path;
+		this.keyframeInterval = keyframeInterval;
+		Field field = engine.getField();
+		recorded = Field.create(field.getWidth(), field.getHeight(),
+				field.getLayout());
+		recordedCells = new long[0];
+		Population population = engine.getPopulation();
+		for (int slot = 0; slot < population.size(); slot++) {
+			recorded.put(0, population.getSpecies(slot), population.getCell(slot));
+		}
+		remember(population);
+
+		pending = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY);
+		spare = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY + 1);
+		channel = FileChannel.open(path, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = buffer(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(field.getWidth())
+				.putInt(field.getHeight()).putInt(field.getLayout());
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		writer = new Thread("Journal writer") {
+			public void run() {
+				write();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+
+		saveKeyframe(engine.getStep());
+		engine.addStepListener(this);
+	}
+
+	/**
+	 * Record the changes a step made to the field.
+	 */
+	public void stepCompleted(SimulationEngine engine) {
+		Population population = engine.getPopulation();
+		Field field = engine.getField();
+		int step = engine.getStep();
+		ByteBuffer buffer = buffer(RECORD_HEADER_SIZE + CHANGE_SIZE
+				* (recordedSize + population.size()));
+		buffer.putInt(step).putInt(0);
+
+		// Cells that held an animal and now hold none...
+		int changes = 0;
+		for (int i = 0; i < recordedSize; i++) {
+			long cell = recordedCells[i];
+			if (field.isEmpty(Field.colOf(cell), Field.rowOf(cell))) {
+				buffer.putLong(cell).put((byte) Field.EMPTY);
+				recorded.remove(cell);
+				changes++;
+			}
+		}
+		// ...and cells whose animal is new, or of another species.
+		for (int slot = 0; slot < population.size(); slot++) {
+			long cell = population.getCell(slot);
+			int species = population.getSpecies(slot);
+			if (recorded.getSpeciesAt(cell) != species) {
+				buffer.putLong(cell).put((byte) species);
+				recorded.put(0, species, cell);
+				changes++;
+			}
+		}
+		buffer.putInt(4, changes);
+		remember(population);
+		send(buffer);
+
+		if (step % keyframeInterval == 0) {
+			saveKeyframe(step);
+		}
+	}
+
+	/**
+	 * Stop following the engine and finish writing the journal.
+	 *
+	 * @throws IOException
+	 *             If anything the journal was given could not be written.
+	 */
+	public void close() throws IOException {
+		engine.removeStepListener(this);
+		try {
+			pending.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			// The writer may not have finished.
+			if (failure == null) {
+				failure = new InterruptedIOException(
+						"Interrupted while finishing the journal");
+			}
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return The file a keyframe taken at a step is saved in.
+	 */
+	static Path keyframePath(Path journal, int step) {
+		return Paths.get(journal.toString() + "." + step);
+	}
+
+	/**
+	 * Save a keyframe and mark it in the journal.
+	 */
+	private void saveKeyframe(int step) {
+		try {
+			Snapshot.write(engine, keyframePath(path, step));
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+			return;
+		}
+		ByteBuffer buffer = buffer(RECORD_HEADER_SIZE);
+		buffer.putInt(step).putInt(KEYFRAME);
+		send(buffer);
+	}
+
+	/**
+	 * Keep a copy of where the animals are, to compare the next step with.
+	 */
+	private void remember(Population population) {
+		recordedSize = population.size();
+		if (recordedCells.length < recordedSize) {
+			recordedCells = Arrays.copyOf(recordedCells,
+					Math.max(recordedSize, recordedCells.length * 2));
+		}
+		System.arraycopy(population.cellColumn(), 0, recordedCells, 0,
+				recordedSize);
+	}
+
+	/**
+	 * Get an empty buffer with room for at least the given number of bytes,
+	 * reusing one the writer has finished with if possible.
+	 */
+	private ByteBuffer buffer(int size) {
+		ByteBuffer buffer = spare.poll();
+		if (buffer == null || buffer.capacity() < size) {
+			buffer = ByteBuffer.allocate(Math.max(size, BUFFER_CAPACITY));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Hand an encoded record to the writer, waiting if it is too far behind.
+	 * If interrupted while waiting the record is lost, so the journal is
+	 * failed: the writer writes nothing more, and close() throws.
+	 */
+	private void send(ByteBuffer buffer) {
+		buffer.flip();
+		try {
+			pending.put(buffer);
+		} catch (InterruptedException e) {
+			if (failure == null) {
+				failure = new InterruptedIOException(
+						"Interrupted while handing the writer step "
+								+ buffer.getInt(0));
+			}
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * What the writer thread does: write each record in the order it was
+	 * sent, until told to stop.
+	 */
+	private void write() {
+		while (true) {
+			ByteBuffer buffer;
+			try {
+				buffer = pending.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (buffer == END) {
+				return;
+			}
+			try {
+				if (failure == null) {
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+			spare.offer(buffer);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Rebuilds the field at any step of a run recorded by a Journal. Opening a
+ * journal reads just the header of each record, to find where every step
+ * starts and which steps have keyframes. The field at a step is then the
+ * nearest keyframe at or before it, with the changes of the steps since
+ * replayed on top.
+ */
+public class JournalReader {
+
+	// Where the journal is.
+	private final Path path;
+
+	// The size and layout of the field.
+	private final int width, height, layout;
+
+	// The step of each change record, in order, where its changes start in
+	// the file and how many there are.
+	private int[] steps;
+	private long[] offsets;
+	private int[] changeCounts;
+	private int records;
+
+	// The steps that have keyframes, in order.
+	private int[] keyframes;
+	private int keyframeCount;
+
+	/**
+	 * Open a journal.
+	 *
+	 * @param path
+	 *            The journal file, with its keyframes beside it.
+	 * @throws IOException
+	 *             If the file can't be read or isn't a journal this version
+	 *             understands.
+	 */
+	public JournalReader(Path path) throws IOException {
+		this.path = path;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = read(channel, 0, Journal.HEADER_SIZE);
+			if (header == null || header.getInt() != Journal.MAGIC) {
+				throw new IOException(path + " is not a journal");
+			}
+			int version = header.getInt();
+			if (version != Journal.VERSION) {
+				throw new IOException(path + " is a version " + version
+						+ " journal; only version " + Journal.VERSION
+						+ " can be read");
+			}
+			width = header.getInt();
+			height = header.getInt();
+			layout = header.getInt();
+
+			steps = new int[64];
+			offsets = new long[64];
+			changeCounts = new int[64];
+			keyframes = new int[8];
+			long position = Journal.HEADER_SIZE;
+			while (true) {
+				ByteBuffer record = read(channel, position,
+						Journal.RECORD_HEADER_SIZE);
+				if (record == null) {
+					// The end, or a record cut short by a run that died
+					// while writing.
+					break;
+				}
+				int step = record.getInt();
+				int changes = record.getInt();
+				position += Journal.RECORD_HEADER_SIZE;
+				if (changes == Journal.KEYFRAME) {
+					if (keyframeCount == keyframes.length) {
+						keyframes = Arrays.copyOf(keyframes, keyframeCount * 2);
+					}
+					keyframes[keyframeCount++] = step;
+					continue;
+				}
+				long end = position + (long) changes * Journal.CHANGE_SIZE;
+				if (end > channel.size()) {
+					break;
+				}
+				if (records == steps.length) {
+					steps = Arrays.copyOf(steps, records * 2);
+					offsets = Arrays.copyOf(offsets, records * 2);
+					changeCounts = Arrays.copyOf(changeCounts, records * 2);
+				}
+				steps[records] = step;
+				offsets[records] = position;
+				changeCounts[records] = changes;
+				records++;
+				position = end;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return The first step the field can be rebuilt at, or -1 if there is
+	 *         none.
+	 */
+	public int getFirstStep() {
+		return keyframeCount == 0 ? -1 : keyframes[0];
+	}
+
+	/**
+	 * @return The last step the field can be rebuilt at, or -1 if there is
+	 *         none.
+	 */
+	public int getLastStep() {
+		if (keyframeCount == 0) {
+			return -1;
+		}
+		int last = keyframes[keyframeCount - 1];
+		return records == 0 ? last : Math.max(last, steps[records - 1]);
+	}
+
+	/**
+	 * Rebuild the field as it was at the end of a step. Animals that were
+	 * put back by replaying changes, rather than loaded from a keyframe, are
+	 * all given slot 0: only the species in the field are meaningful.
+	 *
+	 * @param step
+	 *            The step, from getFirstStep() to getLastStep().
+	 * @return The field.
+	 * @throws IOException
+	 *             If the journal or a keyframe can't be read.
+	 */
+	public Field fieldAt(int step) throws IOException {
+		if (step < getFirstStep() || step > getLastStep()) {
+			throw new IllegalArgumentException("Step " + step
+					+ " is not in the journal");
+		}
+		int keyframe = keyframes[0];
+		for (int i = 1; i < keyframeCount && keyframes[i] <= step; i++) {
+			keyframe = keyframes[i];
+		}
+		Field field = Snapshot.readField(Journal.keyframePath(path, keyframe));
+		if (field.getWidth() != width || field.getHeight() != height) {
+			throw new IOException("The keyframe for step " + keyframe
+					+ " does not match " + path);
+		}
+
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			for (int i = 0; i < records && steps[i] <= step; i++) {
+				if (steps[i] <= keyframe) {
+					continue;
+				}
+				int changes = changeCounts[i];
+				ByteBuffer buffer = read(channel, offsets[i], changes
+						* Journal.CHANGE_SIZE);
+				for (int c = 0; c < changes; c++) {
+					long cell = buffer.getLong();
+					int species = buffer.get();
+					if (species == Field.EMPTY) {
+						field.remove(cell);
+					} else {
+						field.put(0, species, cell);
+					}
+				}
+			}
+		} finally {
+			channel.close();
+		}
+		return field;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Read part of a file.
+	 *
+	 * @return The bytes read, or null if the file ends first.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int size)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(
+				ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -1,7 +1,10 @@
 import java.io.Serializable;
 
 /**
- * Represent a location in a rectangular grid.
+ * Represent a location in a rectangular grid. Inside the simulation
+ * engine locations are packed into long cells (see Field.toCell);
+ * Location objects are used at its edges, by the display and when
+ * saving a simulation.
  * 
  * @author David J. Barnes and Michael Kolling.  Modified by David Dobervich 2007-2013
  * @version 2006.03.30
@@ -47,14 +50,34 @@ public class Location implements Serializable
     }
     
     /**
-     * Use the top 16 bits for the row value and the bottom for
-     * the column. Except for very big grids, this should give a
-     * unique hash code for each (row, col) pair.
+     * Mix the bits of the packed cell, so that locations on grids
+     * of any width, including those wider than 65536 columns,
+     * spread evenly over the hash codes.
      * @return A hashcode for the location.
      */
     public int hashCode()
     {
-        return (row << 16) + col;
+        long hash = toCell() * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return This location packed into a single cell value, as
+     * used inside the simulation engine.
+     */
+    public long toCell()
+    {
+        return Field.toCell(col, row);
+    }
+
+    /**
+     * Make a location from a packed cell value.
+     * @param cell The packed cell, as made by Field.toCell.
+     * @return The location of the cell.
+     */
+    public static Location fromCell(long cell)
+    {
+        return new Location(Field.colOf(cell), Field.rowOf(cell));
     }
     
     /**
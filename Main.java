@@ -11,13 +11,14 @@ public class Main extends PApplet {
 
 		this.simulator = new Simulator(80, 60);
 		this.simulator.setGUI(this);
+		// The simulation runs on its own thread; draw() only draws.
+		this.simulator.setPaused(paused);
+		this.simulator.start();
 	}
 
 	@Override
 	public void draw() {
 		background(200);
-		if (!paused)
-			simulator.simulateOneStep();
 		simulator.drawField();
 		simulator.drawGraph();
 	}
@@ -34,6 +35,7 @@ public class Main extends PApplet {
 
 		if (key == 'p') { 				// 'p' toggles paused and unpaused
 			paused = !paused;
+			simulator.setPaused(paused);
 		}
 
 		if (key == 'c') { 				// 'c' resets the simulator
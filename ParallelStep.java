@@ -0,0 +1,255 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a population on several threads at once. The field is cut into
+ * square tiles, and the animals are sorted into the tile they start the step
+ * in. An animal only ever reads and writes cells next to its own, so two
+ * tiles whose borders are a cell or more apart can be stepped at the same
+ * time. The tiles are coloured like a 2x2 checkerboard: tiles of the same
+ * colour are a whole tile apart, so each pass of a step runs as four phases,
+ * one per colour, with every tile of that colour handed to the fork/join
+ * pool together.
+ *
+ * Each tile acts through its own StepContext with its own random stream,
+ * drawn from the engine's seed, the step, the pass and the tile. Within a
+ * tile the animals act in slot order, and after each phase the tiles' births
+ * and deaths are merged in tile order. So the outcome of a step depends on
+ * the seed and the tile size but not on how many threads there are or how
+ * the pool schedules the tiles.
+ */
+class ParallelStep {
+
+	/** The smallest side a tile can have and keep same-coloured tiles apart */
+	static final int MIN_TILE_SIZE = 3;
+
+	// The number of colours the tiles are divided into.
+	private static final int COLOURS = 4;
+
+	// The animals being stepped.
+	private final Population population;
+
+	// The side of a tile, in cells.
+	private final int tileSize;
+
+	// The number of tiles across and down the field.
+	private final int tilesAcross, tilesDown;
+
+	// The tiles of each colour, in tile order.
+	private final int[][] colourTiles;
+
+	// The context each tile acts through, indexed by tile.
+	private final StepContext[] contexts;
+
+	// The task that steps each tile, indexed by tile.
+	private final TileTask[] tasks;
+
+	// The slots of the animals in each tile: those of tile t are
+	// tileSlots[tileStart[t]] to tileSlots[tileStart[t + 1] - 1].
+	private final int[] tileStart;
+	private int[] tileSlots;
+
+	// The threads that step the tiles.
+	private final ForkJoinPool pool;
+
+	// What the tiles are doing in the current phase.
+	private Field currentField, updatedField;
+	private long seed;
+	private int step, pass;
+
+	/**
+	 * Get ready to step a population on a field of the given size.
+	 *
+	 * @param population
+	 *            The animals to step.
+	 * @param parameters
+	 *            The parameters they act by.
+	 * @param width
+	 *            The width of the field.
+	 * @param height
+	 *            The height of the field.
+	 * @param tileSize
+	 *            The side of a tile, in cells. At least MIN_TILE_SIZE.
+	 * @param threads
+	 *            The number of threads to use.
+	 */
+	ParallelStep(Population population, Parameters parameters, int width,
+			int height, int tileSize, int threads) {
+		if (tileSize < MIN_TILE_SIZE) {
+			throw new IllegalArgumentException("Tile size " + tileSize
+					+ " is less than " + MIN_TILE_SIZE);
+		}
+		this.population = population;
+		this.tileSize = tileSize;
+		tilesAcross = (width + tileSize - 1) / tileSize;
+		tilesDown = (height + tileSize - 1) / tileSize;
+		int tiles = tilesAcross * tilesDown;
+
+		int[] perColour = new int[COLOURS];
+		for (int tile = 0; tile < tiles; tile++) {
+			perColour[colourOf(tile)]++;
+		}
+		colourTiles = new int[COLOURS][];
+		for (int colour = 0; colour < COLOURS; colour++) {
+			colourTiles[colour] = new int[perColour[colour]];
+		}
+		Arrays.fill(perColour, 0);
+		for (int tile = 0; tile < tiles; tile++) {
+			int colour = colourOf(tile);
+			colourTiles[colour][perColour[colour]++] = tile;
+		}
+
+		contexts = new StepContext[tiles];
+		tasks = new TileTask[tiles];
+		for (int tile = 0; tile < tiles; tile++) {
+			contexts[tile] = new StepContext(population, parameters);
+			tasks[tile] = new TileTask(tile);
+		}
+		tileStart = new int[tiles + 1];
+		tileSlots = new int[0];
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Let every animal that was alive at the start of the step act. The
+	 * updated field is left holding the survivors and the newborns; it is up
+	 * to the engine to compact the population and swap the fields.
+	 *
+	 * @param field
+	 *            The field as it was at the start of the step.
+	 * @param updatedField
+	 *            The field to build for the end of the step.
+	 * @param existing
+	 *            The number of slots in use at the start of the step.
+	 * @param seed
+	 *            The engine's seed.
+	 * @param step
+	 *            The number of the step.
+	 * @param metrics
+	 *            Where to time the passes and merges, or null.
+	 * @param events
+	 *            Where to hand the births and deaths, or null.
+	 */
+	void step(Field field, Field updatedField, int existing, long seed,
+			int step, StepMetrics metrics, EventStream events) {
+		sortIntoTiles(existing);
+		for (StepContext context : contexts) {
+			context.recordEvents(events, step);
+		}
+		this.currentField = field;
+		this.updatedField = updatedField;
+		this.seed = seed;
+		this.step = step;
+		updatedField.setConcurrent(true);
+		try {
+			stepPasses(metrics);
+		} finally {
+			updatedField.setConcurrent(false);
+		}
+	}
+
+	/**
+	 * Run each pass of the step, a colour of tiles at a time.
+	 */
+	private void stepPasses(StepMetrics metrics) {
+		for (pass = 0; pass < SimulationEngine.PASSES; pass++) {
+			for (int colour = 0; colour < COLOURS; colour++) {
+				final List<TileTask> work = new ArrayList<TileTask>();
+				for (int tile : colourTiles[colour]) {
+					if (tileStart[tile] != tileStart[tile + 1]) {
+						tasks[tile].reinitialize();
+						work.add(tasks[tile]);
+					}
+				}
+				if (work.isEmpty()) {
+					continue;
+				}
+				pool.invoke(new RecursiveAction() {
+					protected void compute() {
+						invokeAll(work);
+					}
+				});
+				if (metrics != null) {
+					metrics.phaseEnded(StepMetrics.ACT + pass);
+				}
+				// Births and deaths are merged in tile order, whichever
+				// tile finished first.
+				for (TileTask task : work) {
+					contexts[task.tile].merge();
+				}
+				if (metrics != null) {
+					metrics.phaseEnded(StepMetrics.MERGE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the threads. The stepper can't be used afterwards.
+	 */
+	void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Sort the slots of the animals into the tiles they are in, keeping them
+	 * in slot order within each tile.
+	 */
+	private void sortIntoTiles(int existing) {
+		if (tileSlots.length < existing) {
+			tileSlots = new int[Math.max(existing, tileSlots.length * 2)];
+		}
+		Arrays.fill(tileStart, 0);
+		for (int slot = 0; slot < existing; slot++) {
+			tileStart[tileOf(population.getCell(slot)) + 1]++;
+		}
+		for (int tile = 1; tile < tileStart.length; tile++) {
+			tileStart[tile] += tileStart[tile - 1];
+		}
+		// Fill each tile from its end backwards, so that tileStart is back
+		// where it should be when we are done.
+		for (int slot = existing - 1; slot >= 0; slot--) {
+			int tile = tileOf(population.getCell(slot));
+			tileSlots[--tileStart[tile + 1]] = slot;
+		}
+		// tileStart[t + 1] now holds the start of tile t; shift it back.
+		System.arraycopy(tileStart, 1, tileStart, 0, tileStart.length - 1);
+		tileStart[tileStart.length - 1] = existing;
+	}
+
+	private int tileOf(long cell) {
+		return Field.rowOf(cell) / tileSize * tilesAcross + Field.colOf(cell)
+				/ tileSize;
+	}
+
+	private int colourOf(int tile) {
+		int across = tile % tilesAcross;
+		int down = tile / tilesAcross;
+		return (across & 1) | (down & 1) << 1;
+	}
+
+	/**
+	 * Steps the animals of one tile for the current pass.
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int tile;
+
+		TileTask(int tile) {
+			this.tile = tile;
+		}
+
+		protected void compute() {
+			StepContext context = contexts[tile];
+			context.begin(currentField, updatedField,
+					SimulationEngine.stream(seed, step, pass, tile));
+			for (int i = tileStart[tile]; i < tileStart[tile + 1]; i++) {
+				SimulationEngine.act(context, tileSlots[i], pass);
+			}
+		}
+	}
+}
@@ -0,0 +1,371 @@
+import java.util.Arrays;
+
+/**
+ * The numbers that decide how a simulation behaves, so that they can be
+ * changed without recompiling: how each species ages, breeds and feeds, and
+ * how likely each species is to be put in a location when the field is
+ * first populated. New parameters hold the values the species classes give
+ * (Rabbit, Fox and Lynx).
+ *
+ * What each species eats and which pass of a step it acts in are not
+ * parameters: they are the shape of the model rather than numbers in it,
+ * and stay in Animal's tables.
+ *
+ * Every parameter also has a name, the species' class name and the
+ * parameter's joined by a dot (e.g. "Fox.breedingProbability"), through
+ * which sweeps get and set them (see Sweep). A whole-number parameter set
+ * this way is rounded to the nearest whole number.
+ *
+ * An engine takes a copy of the parameters it is given, so changing them
+ * afterwards doesn't change a run that has already started.
+ */
+public class Parameters {
+
+	/** The names of the parameters each species has, without the species */
+	static final String[] PARAMETER_NAMES = { "breedingAge", "maxAge",
+			"breedingProbability", "maxLitterSize", "foodValue",
+			"creationProbability" };
+
+	// Which of the parameters, in the order of PARAMETER_NAMES.
+	private static final int BREEDING_AGE = 0;
+	private static final int MAX_AGE = 1;
+	private static final int BREEDING_PROBABILITY = 2;
+	private static final int MAX_LITTER_SIZE = 3;
+	private static final int FOOD_VALUE = 4;
+	private static final int CREATION_PROBABILITY = 5;
+
+	// The order in which species are tried when populating a location.
+	private static final int[] CREATION_ORDER = { Animal.LYNX, Animal.FOX,
+			Animal.RABBIT };
+
+	// Each of these is indexed by species id, as Animal's tables are.
+
+	/** The age at which each species can start to breed */
+	final int[] breedingAges;
+	/** The age to which each species can live */
+	final int[] maxAges;
+	/** The likelihood of each species breeding */
+	final double[] breedingProbabilities;
+	/** The maximum number of births for each species */
+	final int[] maxLitterSizes;
+	/** The food value of a member of each species to whatever eats it */
+	final int[] foodValues;
+	/** The food level of each species when it is not hungry at all: the
+	 *  greatest food value in its diet, or zero if it grazes */
+	final int[] fullFoodLevels;
+	/** The probability that a species is put in a location, if none tried
+	 *  before it was (see CREATION_ORDER) */
+	final double[] creationProbabilities;
+
+	/**
+	 * Create parameters holding the values the species classes give.
+	 */
+	public Parameters() {
+		breedingAges = new int[] { Rabbit.BREEDING_AGE, Fox.BREEDING_AGE,
+				Lynx.BREEDING_AGE };
+		maxAges = new int[] { Rabbit.MAX_AGE, Fox.MAX_AGE, Lynx.MAX_AGE };
+		breedingProbabilities = new double[] { Rabbit.BREEDING_PROBABILITY,
+				Fox.BREEDING_PROBABILITY, Lynx.BREEDING_PROBABILITY };
+		maxLitterSizes = new int[] { Rabbit.MAX_LITTER_SIZE,
+				Fox.MAX_LITTER_SIZE, Lynx.MAX_LITTER_SIZE };
+		foodValues = new int[] { Rabbit.FOOD_VALUE, Fox.FOOD_VALUE,
+				Lynx.FOOD_VALUE };
+		fullFoodLevels = new int[Animal.SPECIES_COUNT];
+		creationProbabilities = new double[] { Rabbit.CREATION_PROBABILITY,
+				Fox.CREATION_PROBABILITY, Lynx.CREATION_PROBABILITY };
+		updateFullFoodLevels();
+	}
+
+	/**
+	 * Create a copy of some parameters.
+	 *
+	 * @param other
+	 *            The parameters to copy.
+	 */
+	public Parameters(Parameters other) {
+		breedingAges = other.breedingAges.clone();
+		maxAges = other.maxAges.clone();
+		breedingProbabilities = other.breedingProbabilities.clone();
+		maxLitterSizes = other.maxLitterSizes.clone();
+		foodValues = other.foodValues.clone();
+		fullFoodLevels = other.fullFoodLevels.clone();
+		creationProbabilities = other.creationProbabilities.clone();
+	}
+
+	/**
+	 * @return The names of every parameter, species by species.
+	 */
+	public static String[] names() {
+		String[] names = new String[Animal.SPECIES_COUNT
+				* PARAMETER_NAMES.length];
+		int i = 0;
+		for (int species = 0; species < Animal.SPECIES_COUNT; species++) {
+			for (String name : PARAMETER_NAMES) {
+				names[i++] = Animal.speciesClass(species).getName() + "."
+						+ name;
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @param name
+	 *            The name of a parameter, e.g. "Fox.maxAge".
+	 * @return Its value.
+	 */
+	public double get(String name) {
+		int species = speciesOf(name);
+		switch (parameterOf(name)) {
+		case BREEDING_AGE:
+			return breedingAges[species];
+		case MAX_AGE:
+			return maxAges[species];
+		case BREEDING_PROBABILITY:
+			return breedingProbabilities[species];
+		case MAX_LITTER_SIZE:
+			return maxLitterSizes[species];
+		case FOOD_VALUE:
+			return foodValues[species];
+		default:
+			return creationProbabilities[species];
+		}
+	}
+
+	/**
+	 * Set a parameter by name.
+	 *
+	 * @param name
+	 *            The name of a parameter, e.g. "Fox.maxAge".
+	 * @param value
+	 *            Its new value.
+	 */
+	public void set(String name, double value) {
+		int species = speciesOf(name);
+		switch (parameterOf(name)) {
+		case BREEDING_AGE:
+			setBreedingAge(species, (int) Math.round(value));
+			break;
+		case MAX_AGE:
+			setMaxAge(species, (int) Math.round(value));
+			break;
+		case BREEDING_PROBABILITY:
+			setBreedingProbability(species, value);
+			break;
+		case MAX_LITTER_SIZE:
+			setMaxLitterSize(species, (int) Math.round(value));
+			break;
+		case FOOD_VALUE:
+			setFoodValue(species, (int) Math.round(value));
+			break;
+		default:
+			setCreationProbability(species, value);
+			break;
+		}
+	}
+
+	public int getBreedingAge(int species) {
+		return breedingAges[species];
+	}
+
+	public void setBreedingAge(int species, int breedingAge) {
+		breedingAges[species] = breedingAge;
+	}
+
+	public int getMaxAge(int species) {
+		return maxAges[species];
+	}
+
+	/**
+	 * @param maxAge
+	 *            The age to which the species can live. Must be greater than
+	 *            zero.
+	 */
+	public void setMaxAge(int species, int maxAge) {
+		if (maxAge < 1) {
+			throw new IllegalArgumentException("Max age " + maxAge
+					+ " is less than 1");
+		}
+		maxAges[species] = maxAge;
+	}
+
+	public double getBreedingProbability(int species) {
+		return breedingProbabilities[species];
+	}
+
+	public void setBreedingProbability(int species, double probability) {
+		breedingProbabilities[species] = checkProbability(probability);
+	}
+
+	public int getMaxLitterSize(int species) {
+		return maxLitterSizes[species];
+	}
+
+	/**
+	 * @param maxLitterSize
+	 *            The maximum number of births. Must be greater than zero.
+	 */
+	public void setMaxLitterSize(int species, int maxLitterSize) {
+		if (maxLitterSize < 1) {
+			throw new IllegalArgumentException("Max litter size "
+					+ maxLitterSize + " is less than 1");
+		}
+		maxLitterSizes[species] = maxLitterSize;
+	}
+
+	public int getFoodValue(int species) {
+		return foodValues[species];
+	}
+
+	/**
+	 * Set the food value of a species, which also changes how full
+	 * whatever eats it can get.
+	 *
+	 * @param foodValue
+	 *            Its food value. Must not be negative.
+	 */
+	public void setFoodValue(int species, int foodValue) {
+		if (foodValue < 0) {
+			throw new IllegalArgumentException("Food value " + foodValue
+					+ " is negative");
+		}
+		foodValues[species] = foodValue;
+		updateFullFoodLevels();
+	}
+
+	public double getCreationProbability(int species) {
+		return creationProbabilities[species];
+	}
+
+	public void setCreationProbability(int species, double probability) {
+		creationProbabilities[species] = checkProbability(probability);
+	}
+
+	/**
+	 * Work out the share of locations given to each species when the field
+	 * is first populated. A lynx is tried first, then a fox, then a rabbit,
+	 * each only where none before it was put.
+	 *
+	 * @return The share of each species, indexed by species id.
+	 */
+	double[] creationShares() {
+		double[] shares = new double[Animal.SPECIES_COUNT];
+		double left = 1;
+		for (int species : CREATION_ORDER) {
+			shares[species] = left * creationProbabilities[species];
+			left -= shares[species];
+		}
+		return shares;
+	}
+
+	/**
+	 * @return The fraction of locations occupied when the field is first
+	 *         populated.
+	 */
+	public double getDensity() {
+		double[] shares = creationShares();
+		double density = 0;
+		for (int species : CREATION_ORDER) {
+			density += shares[species];
+		}
+		return density;
+	}
+
+	/**
+	 * Choose the species to put in a location, given where a uniform draw
+	 * falls within the density (see getDensity).
+	 *
+	 * @param which
+	 *            A number from zero up to the density.
+	 * @param shares
+	 *            The shares from creationShares().
+	 * @return The species.
+	 */
+	static int speciesAt(double which, double[] shares) {
+		double below = 0;
+		for (int i = 0; i < CREATION_ORDER.length - 1; i++) {
+			below += shares[CREATION_ORDER[i]];
+			if (which < below) {
+				return CREATION_ORDER[i];
+			}
+		}
+		return CREATION_ORDER[CREATION_ORDER.length - 1];
+	}
+
+	/**
+	 * @return Every parameter as name=value pairs, in the order of names().
+	 *         Parameters with the same values always give the same string,
+	 *         so it can be used as a key.
+	 */
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (String name : names()) {
+			if (s.length() > 0) {
+				s.append(',');
+			}
+			s.append(name).append('=').append(get(name));
+		}
+		return s.toString();
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof Parameters)) {
+			return false;
+		}
+		Parameters other = (Parameters) o;
+		return Arrays.equals(breedingAges, other.breedingAges)
+				&& Arrays.equals(maxAges, other.maxAges)
+				&& Arrays.equals(breedingProbabilities,
+						other.breedingProbabilities)
+				&& Arrays.equals(maxLitterSizes, other.maxLitterSizes)
+				&& Arrays.equals(foodValues, other.foodValues)
+				&& Arrays.equals(creationProbabilities,
+						other.creationProbabilities);
+	}
+
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	private void updateFullFoodLevels() {
+		for (int species = 0; species < Animal.SPECIES_COUNT; species++) {
+			fullFoodLevels[species] = 0;
+			for (int prey = 0; prey < Animal.SPECIES_COUNT; prey++) {
+				if (Animal.eats(species, prey)) {
+					fullFoodLevels[species] = Math.max(fullFoodLevels[species],
+							foodValues[prey]);
+				}
+			}
+		}
+	}
+
+	private static double checkProbability(double probability) {
+		if (!(probability >= 0 && probability <= 1)) {
+			throw new IllegalArgumentException("Probability " + probability
+					+ " is not between 0 and 1");
+		}
+		return probability;
+	}
+
+	private static int speciesOf(String name) {
+		int dot = name.indexOf('.');
+		if (dot >= 0) {
+			String species = name.substring(0, dot);
+			for (int s = 0; s < Animal.SPECIES_COUNT; s++) {
+				if (Animal.speciesClass(s).getName().equals(species)) {
+					return s;
+				}
+			}
+		}
+		throw new IllegalArgumentException("No parameter called " + name);
+	}
+
+	private static int parameterOf(String name) {
+		String parameter = name.substring(name.indexOf('.') + 1);
+		for (int p = 0; p < PARAMETER_NAMES.length; p++) {
+			if (PARAMETER_NAMES[p].equals(parameter)) {
+				return p;
+			}
+		}
+		throw new IllegalArgumentException("No parameter called " + name);
+	}
+}
@@ -0,0 +1,437 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Every animal in a simulation, stored as parallel primitive arrays rather
+ * than as one object per animal. An animal is identified by its slot: the
+ * index at which its species, age, food level, cell and alive flag are
+ * found. The per-species characteristics (breeding age, litter size, ...)
+ * are not stored here at all but looked up by species id in Animal.
+ *
+ * New animals are appended, so slots are stable during a step. Dead animals
+ * stay in their slot until compact() is called at the end of the step.
+ *
+ * The population also keeps a count of the live animals of each species,
+ * updated as animals are added and killed, so nobody has to scan the field
+ * to find out how many there are, and running totals of the births and
+ * deaths of each species, of the causes of death and of moves.
+ */
+public class Population {
+
+	// The capacity of a new population.
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Species id of each animal (see Animal).
+	private byte[] species;
+
+	// Age of each animal, in steps.
+	private int[] age;
+
+	// Food level of each animal. Unused for animals that don't eat.
+	private int[] foodLevel;
+
+	// Packed cell of each animal (see Field.toCell).
+	private long[] cell;
+
+	// Whether each animal is still alive.
+	private boolean[] alive;
+
+	// The number of slots in use.
+	private int size;
+
+	// The number of live animals of each species, indexed by species id.
+	private int[] counts;
+
+	// The number of animals of each species born, and the number that have
+	// died, since the population was last cleared.
+	private long[] births;
+	private long[] deaths;
+
+	// The number of deaths from each cause while stepping (see
+	// Animal.OLD_AGE), and the number of moves to a new cell, since the
+	// population was last cleared.
+	private long[] causeDeaths;
+	private long moves;
+
+	// The number of times the population has been cleared, so that those
+	// following the totals above can tell when they start again.
+	private int clears;
+
+	/**
+	 * Create an empty population.
+	 */
+	public Population() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Create an empty population with room for a number of animals before it
+	 * has to grow.
+	 *
+	 * @param capacity
+	 *            The number of animals to make room for. Must be greater than
+	 *            zero.
+	 */
+	public Population(int capacity) {
+		species = new byte[capacity];
+		age = new int[capacity];
+		foodLevel = new int[capacity];
+		cell = new long[capacity];
+		alive = new boolean[capacity];
+		size = 0;
+		counts = new int[Animal.SPECIES_COUNT];
+		births = new long[Animal.SPECIES_COUNT];
+		deaths = new long[Animal.SPECIES_COUNT];
+		causeDeaths = new long[Animal.CAUSE_COUNT];
+	}
+
+	/**
+	 * Add a live animal to the end of the population.
+	 *
+	 * @param species
+	 *            The species id of the animal.
+	 * @param age
+	 *            Its age.
+	 * @param foodLevel
+	 *            Its food level.
+	 * @param cell
+	 *            The packed cell it occupies.
+	 * @return The slot of the new animal.
+	 */
+	public int add(int species, int age, int foodLevel, long cell) {
+		if (size == this.species.length) {
+			grow();
+		}
+		int slot = size++;
+		this.species[slot] = (byte) species;
+		this.age[slot] = age;
+		this.foodLevel[slot] = foodLevel;
+		this.cell[slot] = cell;
+		this.alive[slot] = true;
+		counts[species]++;
+		return slot;
+	}
+
+	/**
+	 * Add an animal born during a step to the end of the population, and
+	 * count its birth.
+	 *
+	 * @param species
+	 *            The species id of the newborn.
+	 * @param foodLevel
+	 *            Its food level.
+	 * @param cell
+	 *            The packed cell it occupies.
+	 * @return The slot of the newborn.
+	 */
+	int addNewborn(int species, int foodLevel, long cell) {
+		births[species]++;
+		return add(species, 0, foodLevel, cell);
+	}
+
+	/**
+	 * @return The number of slots in use, including those of animals that
+	 *         have died since the last compaction.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getSpecies(int slot) {
+		return species[slot];
+	}
+
+	public int getAge(int slot) {
+		return age[slot];
+	}
+
+	public void setAge(int slot, int age) {
+		this.age[slot] = age;
+	}
+
+	public int getFoodLevel(int slot) {
+		return foodLevel[slot];
+	}
+
+	public void setFoodLevel(int slot, int foodLevel) {
+		this.foodLevel[slot] = foodLevel;
+	}
+
+	public long getCell(int slot) {
+		return cell[slot];
+	}
+
+	public void setCell(int slot, long cell) {
+		this.cell[slot] = cell;
+	}
+
+	public boolean isAlive(int slot) {
+		return alive[slot];
+	}
+
+	void setAlive(int slot, boolean alive) {
+		if (alive && !this.alive[slot]) {
+			counts[species[slot]]++;
+		} else if (!alive && this.alive[slot]) {
+			counts[species[slot]]--;
+		}
+		this.alive[slot] = alive;
+	}
+
+	/**
+	 * Mark an animal as dead. It keeps its slot until the next compaction.
+	 *
+	 * @param slot
+	 *            The slot of the animal.
+	 */
+	public void kill(int slot) {
+		if (alive[slot]) {
+			alive[slot] = false;
+			counts[species[slot]]--;
+			deaths[species[slot]]++;
+		}
+	}
+
+	/**
+	 * Mark an animal as dead without touching the counts. A step uses this
+	 * from several threads at once, each keeping its own tally of deaths to
+	 * hand to recordDeaths() when it is safe to.
+	 *
+	 * @param slot
+	 *            The slot of the animal.
+	 * @return true if the animal was alive.
+	 */
+	boolean markDead(int slot) {
+		if (alive[slot]) {
+			alive[slot] = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Count the deaths of animals already marked dead with markDead().
+	 *
+	 * @param species
+	 *            The species id.
+	 * @param count
+	 *            The number that died.
+	 */
+	void recordDeaths(int species, int count) {
+		counts[species] -= count;
+		deaths[species] += count;
+	}
+
+	/**
+	 * Count the causes of deaths already counted with recordDeaths(), and
+	 * some moves.
+	 *
+	 * @param byCause
+	 *            The number that died of each cause.
+	 * @param moves
+	 *            The number of animals that moved to a new cell.
+	 */
+	void recordCauses(int[] byCause, int moves) {
+		for (int cause = 0; cause < byCause.length; cause++) {
+			causeDeaths[cause] += byCause[cause];
+		}
+		this.moves += moves;
+	}
+
+	/**
+	 * @return The number of live animals of a species.
+	 */
+	public int getCount(int species) {
+		return counts[species];
+	}
+
+	/**
+	 * @return The number of animals of a species born since the population
+	 *         was last cleared.
+	 */
+	public long getBirths(int species) {
+		return births[species];
+	}
+
+	/**
+	 * @return The number of animals of a species that have died since the
+	 *         population was last cleared.
+	 */
+	public long getDeaths(int species) {
+		return deaths[species];
+	}
+
+	/**
+	 * @return The number of animals killed by a cause (see Animal.OLD_AGE)
+	 *         while stepping since the population was last cleared. Animals
+	 *         removed by kill() have no cause and aren't counted.
+	 */
+	public long getDeathsFrom(int cause) {
+		return causeDeaths[cause];
+	}
+
+	/**
+	 * @return The number of times an animal has moved to a new cell since
+	 *         the population was last cleared.
+	 */
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * @return The number of times the population has been cleared. When it
+	 *         changes, the running totals (births, deaths, moves) have
+	 *         started again from zero.
+	 */
+	public int getClears() {
+		return clears;
+	}
+
+	/**
+	 * The species column, for saving a snapshot. Only the first size()
+	 * entries are meaningful, and the array must not be modified.
+	 */
+	byte[] speciesColumn() {
+		return species;
+	}
+
+	/**
+	 * The age column, for saving a snapshot (see speciesColumn).
+	 */
+	int[] ageColumn() {
+		return age;
+	}
+
+	/**
+	 * The food level column, for saving a snapshot (see speciesColumn).
+	 */
+	int[] foodLevelColumn() {
+		return foodLevel;
+	}
+
+	/**
+	 * The cell column, for saving a snapshot (see speciesColumn).
+	 */
+	long[] cellColumn() {
+		return cell;
+	}
+
+	/**
+	 * Replace every animal with the contents of a set of columns, all of them
+	 * alive. The population takes the arrays over, so the caller must not
+	 * use them afterwards.
+	 *
+	 * @param species
+	 *            The species of each animal.
+	 * @param age
+	 *            The age of each animal.
+	 * @param foodLevel
+	 *            The food level of each animal.
+	 * @param cell
+	 *            The packed cell of each animal.
+	 * @param size
+	 *            The number of animals. Every array must hold at least this
+	 *            many entries, and at least one.
+	 */
+	void restore(byte[] species, int[] age, int[] foodLevel, long[] cell,
+			int size) {
+		this.species = species;
+		this.age = age;
+		this.foodLevel = foodLevel;
+		this.cell = cell;
+		this.alive = new boolean[species.length];
+		Arrays.fill(alive, 0, size, true);
+		this.size = size;
+		Arrays.fill(counts, 0);
+		for (int slot = 0; slot < size; slot++) {
+			counts[species[slot]]++;
+		}
+	}
+
+	/**
+	 * Remove every animal.
+	 */
+	public void clear() {
+		size = 0;
+		Arrays.fill(counts, 0);
+		Arrays.fill(births, 0);
+		Arrays.fill(deaths, 0);
+		Arrays.fill(causeDeaths, 0);
+		moves = 0;
+		clears++;
+	}
+
+	/**
+	 * Put the animals in a random order.
+	 *
+	 * @param rand
+	 *            The random stream that decides the order.
+	 */
+	public void shuffle(SplittableRandom rand) {
+		for (int i = size - 1; i > 0; i--) {
+			swap(i, rand.nextInt(i + 1));
+		}
+	}
+
+	/**
+	 * Remove the dead animals in a single pass, keeping the survivors in the
+	 * order they were in. The field is kept in step: dead animals that are
+	 * still on it are taken off, and survivors that move to a lower slot are
+	 * renumbered there.
+	 *
+	 * @param field
+	 *            The field holding the animals' slots.
+	 */
+	public void compact(Field field) {
+		int survivors = 0;
+		for (int slot = 0; slot < size; slot++) {
+			long where = cell[slot];
+			boolean onField = field.getOccupant(where) == slot;
+			if (!alive[slot]) {
+				if (onField) {
+					field.remove(where);
+				}
+				continue;
+			}
+			if (survivors != slot) {
+				species[survivors] = species[slot];
+				age[survivors] = age[slot];
+				foodLevel[survivors] = foodLevel[slot];
+				cell[survivors] = where;
+				alive[survivors] = true;
+				if (onField) {
+					field.put(survivors, species[survivors], where);
+				}
+			}
+			survivors++;
+		}
+		size = survivors;
+	}
+
+	private void swap(int i, int j) {
+		byte s = species[i];
+		species[i] = species[j];
+		species[j] = s;
+		int a = age[i];
+		age[i] = age[j];
+		age[j] = a;
+		int f = foodLevel[i];
+		foodLevel[i] = foodLevel[j];
+		foodLevel[j] = f;
+		long c = cell[i];
+		cell[i] = cell[j];
+		cell[j] = c;
+		boolean l = alive[i];
+		alive[i] = alive[j];
+		alive[j] = l;
+	}
+
+	private void grow() {
+		int capacity = species.length * 2;
+		species = Arrays.copyOf(species, capacity);
+		age = Arrays.copyOf(age, capacity);
+		foodLevel = Arrays.copyOf(foodLevel, capacity);
+		cell = Arrays.copyOf(cell, capacity);
+		alive = Arrays.copyOf(alive, capacity);
+	}
+}
@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Streams the history of a run's populations to a file: for each sampled
+ * step, the number of live animals of each species and the births and
+ * deaths of each species since the previous sample. Unlike the graph, the
+ * log keeps everything, however long the run.
+ *
+ * Taking a sample just copies a few numbers into a row from a pool; the
+ * rows are formatted and written by a thread of the log's own, fed through
+ * a bounded queue, so the simulation only waits for the disk once the queue
+ * is full. The writer hands what it has formatted to the file every
+ * flushInterval rows, and when the log is closed.
+ *
+ * A log is written as CSV, with a header line naming the columns, or as
+ * BINARY: a header of int magic, version and number of species, then one
+ * row of longs per sample (step, counts, births, deaths), all little-endian.
+ *
+ * If the simulation thread is interrupted while waiting for the writer, the
+ * sample it was taking is lost; the log carries on, but close() throws.
+ */
+public class PopulationLog implements StepListener {
+
+	/** Format writing one line of text per sample */
+	public static final int CSV = 0;
+	/** Format writing one row of ints per sample */
+	public static final int BINARY = 1;
+
+	// Identifies a binary log: "FRPL".
+	static final int MAGIC = 0x4C505246;
+
+	// The version of the binary format written.
+	static final int VERSION = 2;
+
+	// The number of samples that can wait to be written.
+	private static final int QUEUE_CAPACITY = 1024;
+
+	// The size of the buffer rows are formatted into.
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// Handed to the writer to tell it to stop.
+	private static final long[] END = new long[0];
+
+	// The engine being followed.
+	private final SimulationEngine engine;
+
+	// CSV or BINARY.
+	private final int format;
+
+	// Take a sample every this many steps.
+	private final int sampleInterval;
+
+	// Hand rows to the file every this many.
+	private final int flushInterval;
+
+	// The births and deaths of each species at the last sample, and which
+	// population and clear (see Population.getClears) they were of.
+	private final long[] lastBirths, lastDeaths;
+	private Population population;
+	private int clears;
+
+	// Samples waiting to be written, and rows ready to be used again. A
+	// row holds the step, then the count, births and deaths of each species.
+	private final ArrayBlockingQueue<long[]> pending;
+	private final ArrayBlockingQueue<long[]> spare;
+
+	// Writes the samples.
+	private final Thread writer;
+	private final FileChannel channel;
+
+	// The first thing that went wrong while writing, if anything has.
+	private volatile IOException failure;
+
+	/**
+	 * Start logging an engine's populations, from its next step. The log
+	 * registers itself to hear about every step.
+	 *
+	 * @param engine
+	 *            The engine to follow.
+	 * @param path
+	 *            The file to write. It is replaced if it exists.
+	 * @param format
+	 *            CSV or BINARY.
+	 * @param sampleInterval
+	 *            Take a sample every this many steps. Must be greater than
+	 *            zero.
+	 * @param flushInterval
+	 *            Hand samples to the file every this many. Must be greater
+	 *            than zero.
+	 * @throws IOException
+	 *             If the file can't be created.
+	 */
+	public PopulationLog(SimulationEngine engine, Path path, int format,
+			int sampleInterval, int flushInterval) throws IOException {
+		if (format != CSV && format != BINARY) {
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+		if (sampleInterval < 1 || flushInterval < 1) {
+			throw new IllegalArgumentException("Intervals must be greater than zero");
+		}
+		this.engine = engine;
+		this.format = format;
+		this.sampleInterval = sampleInterval;
+		this.flushInterval = flushInterval;
+		lastBirths = new long[Animal.SPECIES_COUNT];
+		lastDeaths = new long[Animal.SPECIES_COUNT];
+		population = engine.getPopulation();
+		clears = population.getClears();
+		for (int species = 0; species < Animal.SPECIES_COUNT; species++) {
+			lastBirths[species] = population.getBirths(species);
+			lastDeaths[species] = population.getDeaths(species);
+		}
+
+		pending = new ArrayBlockingQueue<long[]>(QUEUE_CAPACITY);
+		spare = new ArrayBlockingQueue<long[]>(QUEUE_CAPACITY);
+		for (int i = 0; i < QUEUE_CAPACITY; i++) {
+			spare.add(new long[1 + 3 * Animal.SPECIES_COUNT]);
+		}
+		channel = FileChannel.open(path, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		writer = new Thread("Population log writer") {
+			public void run() {
+				write();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+		engine.addStepListener(this);
+	}
+
+	/**
+	 * Take a sample, if this is a step to take one at.
+	 */
+	public void stepCompleted(SimulationEngine engine) {
+		int step = engine.getStep();
+		if (step % sampleInterval != 0) {
+			return;
+		}
+		long[] row;
+		try {
+			row = spare.take();
+		} catch (InterruptedException e) {
+			if (failure == null) {
+				failure = new InterruptedIOException(
+						"Interrupted while taking the sample of step " + step);
+			}
+			Thread.currentThread().interrupt();
+			return;
+		}
+		// The totals start again from zero when the engine is reset, and a
+		// loaded engine has a new population whose totals start from zero.
+		Population population = engine.getPopulation();
+		if (population != this.population
+				|| population.getClears() != clears) {
+			this.population = population;
+			clears = population.getClears();
+			Arrays.fill(lastBirths, 0);
+			Arrays.fill(lastDeaths, 0);
+		}
+		int n = Animal.SPECIES_COUNT;
+		row[0] = step;
+		for (int species = 0; species < n; species++) {
+			long births = population.getBirths(species);
+			long deaths = population.getDeaths(species);
+			row[1 + species] = population.getCount(species);
+			row[1 + n + species] = births - lastBirths[species];
+			row[1 + 2 * n + species] = deaths - lastDeaths[species];
+			lastBirths[species] = births;
+			lastDeaths[species] = deaths;
+		}
+		pending.add(row);
+	}
+
+	/**
+	 * Stop following the engine and finish writing the log.
+	 *
+	 * @throws IOException
+	 *             If any of the log could not be written.
+	 */
+	public void close() throws IOException {
+		engine.removeStepListener(this);
+		try {
+			pending.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			// The writer may not have finished.
+			if (failure == null) {
+				failure = new InterruptedIOException(
+						"Interrupted while finishing the log");
+			}
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * What the writer thread does: format each row in the order it was
+	 * taken, and hand them to the file in batches, until told to stop.
+	 */
+	private void write() {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		StringBuilder line = new StringBuilder();
+		int n = Animal.SPECIES_COUNT;
+		int rowSize = 8 * (1 + 3 * n);
+		int unflushed = 0;
+		try {
+			if (format == CSV) {
+				line.append("step");
+				String[] columns = { "", ".births", ".deaths" };
+				for (String column : columns) {
+					for (int species = 0; species < n; species++) {
+						line.append(',')
+								.append(Animal.speciesClass(species).getName())
+								.append(column);
+					}
+				}
+				line.append('\n');
+				buffer.put(line.toString().getBytes(StandardCharsets.US_ASCII));
+			} else {
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(n);
+			}
+			while (true) {
+				long[] row = pending.take();
+				if (row == END) {
+					break;
+				}
+				if (format == CSV) {
+					line.setLength(0);
+					for (int i = 0; i < row.length; i++) {
+						if (i > 0) {
+							line.append(',');
+						}
+						line.append(row[i]);
+					}
+					line.append('\n');
+					byte[] bytes = line.toString().getBytes(
+							StandardCharsets.US_ASCII);
+					if (buffer.remaining() < bytes.length) {
+						drain(buffer);
+					}
+					buffer.put(bytes);
+				} else {
+					if (buffer.remaining() < rowSize) {
+						drain(buffer);
+					}
+					for (int i = 0; i < row.length; i++) {
+						buffer.putLong(row[i]);
+					}
+				}
+				spare.add(row);
+				if (++unflushed == flushInterval) {
+					drain(buffer);
+					unflushed = 0;
+				}
+			}
+			drain(buffer);
+		} catch (IOException e) {
+			failure = e;
+			// Keep taking rows so that the simulation never waits for a
+			// writer that has given up.
+			discard();
+		} catch (InterruptedException e) {
+			return;
+		}
+	}
+
+	/**
+	 * Throw rows away until told to stop.
+	 */
+	private void discard() {
+		try {
+			long[] row;
+			while ((row = pending.take()) != END) {
+				spare.add(row);
+			}
+		} catch (InterruptedException e) {
+			return;
+		}
+	}
+
+	/**
+	 * Write everything in the buffer to the file.
+	 */
+	private void drain(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the summaries of finished runs on disk, so that running a sweep
+ * again, or one that overlaps it, only runs what hasn't been run before.
+ *
+ * A summary is filed under a hash of everything that decides it: the size
+ * of the field, the parameters, the seed, the number of steps and the
+ * version of the code. The code version is itself a hash of the class files
+ * of the model (MODEL_CLASSES), so a change to how the animals behave
+ * starts a fresh set of results rather than mixing old ones in. The layout
+ * of the field is left out, since it doesn't change the outcome of a run.
+ *
+ * Each summary is a small text file of its own, written to a temporary
+ * file and then moved into place, so a sweep that is stopped part way
+ * leaves every summary it finished and none half written.
+ */
+public class ResultCache {
+
+	// The classes whose behaviour decides the outcome of a run.
+	private static final Class<?>[] MODEL_CLASSES = { Animal.class,
+			Rabbit.class, Fox.class, Lynx.class, Parameters.class,
+			Population.class, Field.class, SparseField.class,
+			StepContext.class, ParallelStep.class, SimulationEngine.class,
+			FieldStats.class, Ensemble.class };
+
+	// The version of the file format.
+	private static final int VERSION = 1;
+
+	// Where the summaries are kept.
+	private final Path directory;
+
+	// The hash of the model's class files.
+	private final String codeVersion;
+
+	/**
+	 * Use a directory as a cache, creating it if need be.
+	 *
+	 * @param directory
+	 *            The directory to keep the summaries in.
+	 * @throws IOException
+	 *             If the directory can't be created.
+	 */
+	public ResultCache(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		codeVersion = codeVersion();
+	}
+
+	/**
+	 * Run every simulation whose summary isn't in the cache, and hand the
+	 * summary of each run to the aggregator: those in the cache first, then
+	 * the rest as they finish. Each new summary is put in the cache as soon
+	 * as its run finishes.
+	 *
+	 * @param ensemble
+	 *            The runner to run the missing runs on.
+	 * @param runs
+	 *            The simulations wanted.
+	 * @param aggregator
+	 *            Told about each run, on the calling thread.
+	 * @return The number of runs that had to be run.
+	 * @throws IOException
+	 *             If a summary can't be read or written.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the runs.
+	 */
+	public int run(Ensemble ensemble, List<Ensemble.Run> runs,
+			final Ensemble.Aggregator aggregator) throws IOException,
+			InterruptedException {
+		List<Ensemble.Run> missing = new ArrayList<Ensemble.Run>();
+		for (Ensemble.Run run : runs) {
+			Ensemble.Summary summary = get(run);
+			if (summary != null) {
+				aggregator.runCompleted(summary);
+			} else {
+				missing.add(run);
+			}
+		}
+		final IOException[] failure = new IOException[1];
+		ensemble.run(missing, new Ensemble.Aggregator() {
+			public void runCompleted(Ensemble.Summary summary) {
+				if (failure[0] == null) {
+					try {
+						put(summary);
+					} catch (IOException e) {
+						failure[0] = e;
+					}
+				}
+				aggregator.runCompleted(summary);
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return missing.size();
+	}
+
+	/**
+	 * @param run
+	 *            A simulation.
+	 * @return Its summary, or null if it isn't in the cache.
+	 * @throws IOException
+	 *             If the summary is there but can't be read.
+	 */
+	public Ensemble.Summary get(Ensemble.Run run) throws IOException {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(pathOf(run), StandardCharsets.US_ASCII);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			if (lines.size() != 9 || !lines.get(0).equals("version " + VERSION)
+					|| !lines.get(1).equals(describe(run))
+					|| !lines.get(7).equals(codeVersion)) {
+				throw new IOException("Not a summary of " + describe(run));
+			}
+			String[] totals = lines.get(2).split(" ");
+			int steps = Integer.parseInt(totals[0]);
+			boolean viable = Boolean.parseBoolean(totals[1]);
+			long nanos = Long.parseLong(totals[2]);
+			return new Ensemble.Summary(run, steps, viable, readInts(lines
+					.get(3)), readInts(lines.get(4)), readInts(lines.get(5)),
+					readDoubles(lines.get(6)), nanos);
+		} catch (RuntimeException e) {
+			throw new IOException("Can't read the summary of " + describe(run),
+					e);
+		}
+	}
+
+	/**
+	 * Put a summary in the cache, replacing any there already.
+	 *
+	 * @param summary
+	 *            The summary of a finished run.
+	 * @throws IOException
+	 *             If it can't be written.
+	 */
+	public void put(Ensemble.Summary summary) throws IOException {
+		Ensemble.Run run = summary.getRun();
+		int n = Animal.SPECIES_COUNT;
+		int[] extinctionSteps = new int[n];
+		int[] finalCounts = new int[n];
+		int[] peakCounts = new int[n];
+		double[] meanCounts = new double[n];
+		for (int species = 0; species < n; species++) {
+			extinctionSteps[species] = summary.getExtinctionStep(species);
+			finalCounts[species] = summary.getFinalCount(species);
+			peakCounts[species] = summary.getPeakCount(species);
+			meanCounts[species] = summary.getMeanCount(species);
+		}
+		StringBuilder s = new StringBuilder();
+		s.append("version ").append(VERSION).append('\n');
+		s.append(describe(run)).append('\n');
+		s.append(summary.getSteps()).append(' ').append(summary.isViable())
+				.append(' ').append(summary.getNanos()).append('\n');
+		s.append(join(extinctionSteps)).append('\n');
+		s.append(join(finalCounts)).append('\n');
+		s.append(join(peakCounts)).append('\n');
+		s.append(join(meanCounts)).append('\n');
+		s.append(codeVersion).append('\n');
+		s.append("end\n");
+
+		Path path = pathOf(run);
+		Path temp = Files.createTempFile(directory, "summary", ".tmp");
+		try {
+			Files.write(temp, s.toString().getBytes(StandardCharsets.US_ASCII));
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * @param run
+	 *            A simulation.
+	 * @return The key its summary is filed under.
+	 */
+	public String keyOf(Ensemble.Run run) {
+		return hex(sha256(("code " + codeVersion + "\n" + describe(run))
+				.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/**
+	 * @return The hash of the model's class files.
+	 */
+	public String getCodeVersion() {
+		return codeVersion;
+	}
+
+	private Path pathOf(Ensemble.Run run) {
+		return directory.resolve(keyOf(run) + ".summary");
+	}
+
+	/**
+	 * @return Everything about a run that decides its outcome, apart from
+	 *         the code, as one line.
+	 */
+	private static String describe(Ensemble.Run run) {
+		return "size " + run.getWidth() + "x" + run.getHeight() + " seed "
+				+ run.getSeed() + " steps " + run.getMaxSteps() + " "
+				+ run.getParameters();
+	}
+
+	/**
+	 * Hash the class files of the model.
+	 */
+	private static String codeVersion() throws IOException {
+		MessageDigest digest = newDigest();
+		for (Class<?> c : MODEL_CLASSES) {
+			InputStream in = c.getResourceAsStream(c.getName() + ".class");
+			if (in == null) {
+				throw new IOException("Can't find the class file of "
+						+ c.getName());
+			}
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return hex(digest.digest());
+	}
+
+	private static byte[] sha256(byte[] bytes) {
+		return newDigest().digest(bytes);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder s = new StringBuilder();
+		for (byte b : bytes) {
+			s.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+					Character.forDigit(b & 0xF, 16));
+		}
+		return s.toString();
+	}
+
+	private static String join(int[] values) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				s.append(' ');
+			}
+			s.append(values[i]);
+		}
+		return s.toString();
+	}
+
+	private static String join(double[] values) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				s.append(' ');
+			}
+			s.append(values[i]);
+		}
+		return s.toString();
+	}
+
+	private static int[] readInts(String line) {
+		String[] parts = speciesValues(line);
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i]);
+		}
+		return values;
+	}
+
+	private static double[] readDoubles(String line) {
+		String[] parts = speciesValues(line);
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Double.parseDouble(parts[i]);
+		}
+		return values;
+	}
+
+	private static String[] speciesValues(String line) {
+		String[] parts = line.split(" ");
+		if (parts.length != Animal.SPECIES_COUNT) {
+			throw new IllegalArgumentException("Expected "
+					+ Animal.SPECIES_COUNT + " values, not " + parts.length);
+		}
+		return parts;
+	}
+}
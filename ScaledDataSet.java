@@ -1,7 +1,24 @@
-import java.util.ArrayList;
-
+import java.util.Arrays;
+
+/**
+ * The points of one series on a graph, scaled into screen coordinates as
+ * they are added. Only the most recent points are kept, in a ring of
+ * primitive floats with a fixed capacity, so a long run doesn't grow the
+ * set without bound.
+ *
+ * For drawing, every point added since the set was last cleared is also
+ * summarised by the pixel column it falls in: the first, last, smallest
+ * and largest y in that column. Drawing the summary takes time in
+ * proportion to the width of the graph, however many points there are.
+ */
 public class ScaledDataSet {
-    private ArrayList<Float> xvals, yvals;
+    // The number of points kept when no capacity is given.
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    // The most recent points, oldest first from start, wrapping round.
+    private float[] xvals, yvals;
+    private int start, size;
+
     private boolean yscaling = true;
     private boolean xscaling = true;
     private float inputymin, inputymax, scaledymin, scaledymax;
@@ -9,13 +26,24 @@ public class ScaledDataSet {
     private float xmin, xmax, ymin, ymax;
     private float yshiftval, yscaleval, xshiftval, xscaleval;
 
+    // The summary of each pixel column, from the column of scaledxmin.
+    // A column with no points in it has a count of zero.
+    private int[] columnCounts;
+    private float[] columnFirst, columnLast, columnMin, columnMax;
+
     public ScaledDataSet() {
-        xvals = new ArrayList<Float>();
-        yvals = new ArrayList<Float>();
-        xmax = Float.MIN_NORMAL;
-        ymax = Float.MIN_NORMAL;
-        xmin = Float.MAX_VALUE;
-        ymin = Float.MAX_VALUE;
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of recent points to keep. Must be
+     *        greater than zero.
+     */
+    public ScaledDataSet(int capacity) {
+        xvals = new float[capacity];
+        yvals = new float[capacity];
+        columnCounts = new int[0];
+        clear();
     }
 
     // Calling this method will automatically scale
@@ -36,6 +64,8 @@ public class ScaledDataSet {
     }
 
     // todo:  check if re-scaling to existing scaling values!
+    // Changing the x scaling starts a new summary, so it should only be
+    // done to an empty set.
     public void setxScaling(float inputxmin, float scaledxmin,
             float inputxmax, float scaledxmax) {
         this.inputxmin = inputxmin;
@@ -45,13 +75,23 @@ public class ScaledDataSet {
         this.xscaling = true;
         this.xscaleval = (float)(scaledxmax - scaledxmin)/(float)(inputxmax - inputxmin);
         this.xshiftval = scaledxmin - xscaleval*inputxmin;
+
+        int columns = (int) Math.ceil(Math.abs(scaledxmax - scaledxmin)) + 1;
+        if (columnCounts.length != columns) {
+            columnCounts = new int[columns];
+            columnFirst = new float[columns];
+            columnLast = new float[columns];
+            columnMin = new float[columns];
+            columnMax = new float[columns];
+        } else {
+            Arrays.fill(columnCounts, 0);
+        }
     }
 
     public void addPoint(float x, float y) {
         if (yscaling) {
             // scale the input and then add!
             y = y*yscaleval + yshiftval;
-            yvals.add(y);
         } else {
             System.out.println("ScaledDataSet couldn't add point " + x + ", "
                     + y + "; No y scale values set!");
@@ -59,12 +99,23 @@ public class ScaledDataSet {
 
        if (xscaling) {
             x = x*xscaleval + this.xshiftval;
-            xvals.add(x);
         } else {
             System.out.println("ScaledDataSet couldn't add point " + x + ", "
                     + y + "; No x scale values set!");
         }
 
+        // Keep the point, pushing out the oldest if the ring is full.
+        int end = (start + size) % xvals.length;
+        xvals[end] = x;
+        yvals[end] = y;
+        if (size < xvals.length) {
+            size++;
+        } else {
+            start = (start + 1) % xvals.length;
+        }
+
+        summarise(x, y);
+
         // update min and max values
         if (x < xmin) {
             xmin = x;
@@ -79,6 +130,28 @@ public class ScaledDataSet {
         }
     }
 
+    /**
+     * Add a scaled point to the summary of its pixel column. Points outside
+     * the columns aren't summarised.
+     */
+    private void summarise(float x, float y) {
+        float offset = x - scaledxmin;
+        if (offset < 0 || offset >= columnCounts.length) {
+            return;
+        }
+        int column = (int) offset;
+        if (columnCounts[column]++ == 0) {
+            columnFirst[column] = y;
+            columnMin[column] = y;
+            columnMax[column] = y;
+        } else if (y < columnMin[column]) {
+            columnMin[column] = y;
+        } else if (y > columnMax[column]) {
+            columnMax[column] = y;
+        }
+        columnLast[column] = y;
+    }
+
     public float getxmin() {
         return xmin;
     }
@@ -95,34 +168,73 @@ public class ScaledDataSet {
         return ymax;
     }
 
-    // return number of data points in the set
+    // return number of data points kept in the set
     public int getSize() {
-        return xvals.size();
+        return size;
+    }
+
+    // return the number of points the set can keep
+    public int getCapacity() {
+        return xvals.length;
     }
 
     public void clearData() {
-        xvals.clear();
-        yvals.clear();
-        xmax = Float.MIN_NORMAL;
-        ymax = Float.MIN_NORMAL;
-        xmin = Float.MAX_VALUE;
-        ymin = Float.MAX_VALUE;
+        clear();
     }
 
     public void clear() {
-        xvals.clear();
-        yvals.clear();
+        start = 0;
+        size = 0;
+        Arrays.fill(columnCounts, 0);
         xmax = Float.MIN_NORMAL;
         ymax = Float.MIN_NORMAL;
         xmin = Float.MAX_VALUE;
         ymin = Float.MAX_VALUE;
     }
 
+    // the x of a kept point, oldest first
     public float getx(int num) {
-        return xvals.get(num);
+        return xvals[(start + num) % xvals.length];
     }
-    
+
+    // the y of a kept point, oldest first
     public float gety(int num) {
-        return yvals.get(num);
+        return yvals[(start + num) % yvals.length];
+    }
+
+    // return the number of pixel columns in the summary
+    public int getColumnCount() {
+        return columnCounts.length;
+    }
+
+    // whether any point has been added to a pixel column
+    public boolean hasColumn(int column) {
+        return columnCounts[column] > 0;
+    }
+
+    // the screen x of a pixel column
+    public float getColumnX(int column) {
+        return scaledxmax >= scaledxmin ? scaledxmin + column
+                : scaledxmin - column;
+    }
+
+    // the y of the first point added to a pixel column
+    public float getColumnFirst(int column) {
+        return columnFirst[column];
+    }
+
+    // the y of the last point added to a pixel column
+    public float getColumnLast(int column) {
+        return columnLast[column];
+    }
+
+    // the smallest y added to a pixel column
+    public float getColumnMin(int column) {
+        return columnMin[column];
+    }
+
+    // the largest y added to a pixel column
+    public float getColumnMax(int column) {
+        return columnMax[column];
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,549 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Microbenchmarks for the paths that dominate a profile of the simulation:
+ * the neighbourhood queries in Field, the predators' search for food, the
+ * population count and a whole step of the engine.
+ *
+ * Every benchmark is run for each combination of grid size, initial density
+ * and seed. After a warm-up period each one is timed for a fixed period and
+ * reported as operations per second together with the bytes allocated per
+ * operation and the number of collections during measurement, much like
+ * JMH's gc profiler. JMH itself cannot be used here: its generated code
+ * refuses benchmarks in the default package, which is where the sketch
+ * lives.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java SimulationBenchmark [-size WxH,...] [-density d,...] [-seed s,...]
+ *         [-warmup ms] [-measure ms] [-only name,...]
+ * </pre>
+ */
+public class SimulationBenchmark {
+
+	// Grid sizes used when none are given on the command line.
+	private static final String DEFAULT_SIZES = "80x60,256x256,1024x1024,4096x4096";
+
+	// Initial densities used when none are given on the command line.
+	private static final String DEFAULT_DENSITIES = "0.1,0.3";
+
+	// Seeds used when none are given on the command line.
+	private static final String DEFAULT_SEEDS = "42";
+
+	// How many query locations each Field benchmark cycles through.
+	private static final int QUERY_LOCATIONS = 4096;
+
+	// Thread counts used by the parallel step benchmark.
+	private static final int[] STEP_THREADS = { 2, 4, 8 };
+
+	// The fraction of the animals that die at once in the die-off benchmarks.
+	private static final double DIE_OFF = 0.9;
+
+	// The most animals the ArrayList die-off benchmark is run with. Beyond
+	// this a single operation takes minutes.
+	private static final int MAX_LIST_ANIMALS = 200000;
+
+	// Per-thread allocation counter, or null if the JVM has none.
+	private static final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+	/**
+	 * One benchmark. {@link #setUp} builds the state for a set of parameters
+	 * and {@link #run} performs a single measured operation.
+	 */
+	static abstract class Case {
+		private final String name;
+
+		Case(String name) {
+			this.name = name;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		abstract void setUp(int width, int height, double density, long seed);
+
+		abstract void run();
+
+		/**
+		 * @return How many operations to run between looks at the clock.
+		 */
+		int batchSize() {
+			return 64;
+		}
+
+		/**
+		 * @return Whether the benchmark can be run on a grid of this size
+		 *         in a reasonable time.
+		 */
+		boolean supports(int width, int height, double density) {
+			return true;
+		}
+	}
+
+	/**
+	 * Removing the dead after a die-off, in which most of the animals in a
+	 * field starve at once. Each operation builds the same population, with
+	 * the same animals marked to die, and then removes the dead.
+	 */
+	static abstract class DieOffCase extends Case {
+		protected int animals;
+		protected boolean[] dies;
+
+		DieOffCase(String name) {
+			super(name);
+		}
+
+		void setUp(int width, int height, double density, long seed) {
+			SplittableRandom rand = new SplittableRandom(seed);
+			animals = (int) (width * height * density);
+			dies = new boolean[animals];
+			for (int i = 0; i < animals; i++) {
+				dies[i] = rand.nextDouble() < DIE_OFF;
+			}
+		}
+
+		int batchSize() {
+			return 1;
+		}
+	}
+
+	/**
+	 * The shared state for the Field benchmarks: a populated field in a given
+	 * layout, the population it holds and a set of locations to ask about.
+	 */
+	static abstract class FieldCase extends Case {
+		private final int layout;
+		protected Field field;
+		protected Population population;
+		protected Location[] locations;
+		protected long[] cells;
+		protected SplittableRandom rand;
+		protected int next;
+
+		FieldCase(String name) {
+			this(name, Field.DEFAULT_LAYOUT);
+		}
+
+		FieldCase(String name, int layout) {
+			super(name);
+			this.layout = layout;
+		}
+
+		void setUp(int width, int height, double density, long seed) {
+			SplittableRandom rand = new SplittableRandom(seed);
+			SimulationEngine engine = new SimulationEngine(width, height, seed,
+					layout);
+			engine.reset(density, rand);
+			field = engine.getField();
+			population = engine.getPopulation();
+			locations = new Location[QUERY_LOCATIONS];
+			cells = new long[QUERY_LOCATIONS];
+			for (int i = 0; i < locations.length; i++) {
+				locations[i] = new Location(rand.nextInt(width), rand.nextInt(height));
+				cells[i] = locations[i].toCell();
+			}
+			this.rand = rand;
+			next = 0;
+		}
+
+		protected Location nextLocation() {
+			Location location = locations[next];
+			next = (next + 1) % locations.length;
+			return location;
+		}
+
+		protected long nextCell() {
+			long cell = cells[next];
+			next = (next + 1) % cells.length;
+			return cell;
+		}
+	}
+
+	/**
+	 * A whole step of the engine, on a given number of threads and with the
+	 * field in a given layout.
+	 */
+	static class StepCase extends Case {
+		private final int threads;
+		private final int layout;
+		private SimulationEngine engine;
+		private int width, height;
+		private double density;
+		private long seed;
+
+		StepCase(String name, int threads) {
+			this(name, threads, Field.DEFAULT_LAYOUT);
+		}
+
+		StepCase(String name, int threads, int layout) {
+			super(name);
+			this.threads = threads;
+			this.layout = layout;
+		}
+
+		void setUp(int width, int height, double density, long seed) {
+			this.width = width;
+			this.height = height;
+			this.density = density;
+			this.seed = seed;
+			start();
+		}
+
+		void run() {
+			// Start again rather than measure a dead world.
+			if (!engine.isViable()) {
+				start();
+			}
+			engine.step();
+		}
+
+		int batchSize() {
+			return 1;
+		}
+
+		private void start() {
+			if (engine != null) {
+				engine.shutdown();
+			}
+			engine = new SimulationEngine(width, height, seed, layout);
+			engine.setThreads(threads);
+			engine.reset(density, new SplittableRandom(seed));
+		}
+	}
+
+	public static void main(String[] args) {
+		String sizes = DEFAULT_SIZES;
+		String densities = DEFAULT_DENSITIES;
+		String seeds = DEFAULT_SEEDS;
+		String only = null;
+		long warmupMillis = 1000;
+		long measureMillis = 2000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-size")) {
+				sizes = args[i + 1];
+			} else if (args[i].equals("-density")) {
+				densities = args[i + 1];
+			} else if (args[i].equals("-seed")) {
+				seeds = args[i + 1];
+			} else if (args[i].equals("-warmup")) {
+				warmupMillis = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-measure")) {
+				measureMillis = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-only")) {
+				only = "," + args[i + 1] + ",";
+			} else {
+				System.out.println("Unknown option " + args[i]);
+				return;
+			}
+		}
+
+		System.out.printf("%-34s %11s %8s %6s %14s %12s %9s%n", "Benchmark",
+				"(size)", "(density)", "(seed)", "ops/s", "B/op", "gc.count");
+		for (Case c : cases()) {
+			if (only != null && !only.contains("," + c.getName() + ",")) {
+				continue;
+			}
+			for (String size : sizes.split(",")) {
+				String[] dims = size.split("x");
+				int width = Integer.parseInt(dims[0]);
+				int height = Integer.parseInt(dims[1]);
+				for (String density : densities.split(",")) {
+					if (!c.supports(width, height, Double.parseDouble(density))) {
+						continue;
+					}
+					for (String seed : seeds.split(",")) {
+						c.setUp(width, height, Double.parseDouble(density),
+								Long.parseLong(seed));
+						measure(c, warmupMillis);
+						double[] result = measure(c, measureMillis);
+						System.out.printf("%-34s %11s %8s %6s %14.1f %12.1f %9d%n",
+								c.getName(), size, density, seed, result[0],
+								result[1], (long) result[2]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run a benchmark repeatedly for a period of time.
+	 *
+	 * @return Operations per second, bytes allocated per operation (or NaN
+	 *         if the JVM cannot tell) and the number of collections.
+	 */
+	private static double[] measure(Case c, long millis) {
+		long gcBefore = collections();
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + millis * 1000000L;
+		int batch = c.batchSize();
+		long ops = 0;
+		long now;
+		do {
+			// Check the clock in batches so that it doesn't dominate
+			// the cheap operations.
+			for (int i = 0; i < batch; i++) {
+				c.run();
+			}
+			ops += batch;
+			now = System.nanoTime();
+		} while (now < end);
+		long bytes = allocatedBytes() - bytesBefore;
+		double seconds = (now - start) / 1e9;
+		return new double[] { ops / seconds,
+				threads == null ? Double.NaN : (double) bytes / ops,
+				collections() - gcBefore };
+	}
+
+	/**
+	 * @return Every benchmark in the suite.
+	 */
+	private static List<Case> cases() {
+		List<Case> cases = new ArrayList<Case>();
+
+		cases.add(new FieldCase("Field.adjacentLocations") {
+			void run() {
+				field.adjacentLocations(nextLocation(), rand);
+			}
+		});
+
+		cases.add(new FieldCase("Field.freeAdjacentLocation") {
+			void run() {
+				field.freeAdjacentLocation(nextLocation(), rand);
+			}
+		});
+
+		cases.add(new FieldCase("Field.freeAdjacentCell") {
+			void run() {
+				field.freeAdjacentCell(nextCell(), rand);
+			}
+		});
+
+		cases.add(new FieldCase("Field.randomAdjacentLocation") {
+			void run() {
+				field.randomAdjacentLocation(nextLocation(), rand);
+			}
+		});
+
+		cases.add(new FieldCase("Field.randomAdjacentCell") {
+			void run() {
+				field.randomAdjacentCell(nextCell(), rand);
+			}
+		});
+
+		cases.add(new FieldCase("Field.distanceToObject") {
+			private int direction;
+
+			void run() {
+				field.distanceToObject(nextLocation(), direction);
+				direction = (direction + 1) % (Field.MAX_DIRECTION + 1);
+			}
+		});
+
+		cases.add(new FieldCase("Field.distanceToObject.sparse", Field.SPARSE) {
+			private int direction;
+
+			void run() {
+				field.distanceToObject(nextLocation(), direction);
+				direction = (direction + 1) % (Field.MAX_DIRECTION + 1);
+			}
+		});
+
+		cases.add(new FieldCase("Animal.findFood.fox") {
+			private int hunter;
+			private StepContext context;
+
+			void setUp(int width, int height, double density, long seed) {
+				super.setUp(width, height, density, seed);
+				// A hunter that isn't on the field, so that it can look
+				// anywhere.
+				Parameters parameters = new Parameters();
+				hunter = Animal.create(population, parameters, Animal.FOX,
+						false, Field.toCell(0, 0), rand);
+				context = new StepContext(population, parameters);
+				context.begin(field, field, new SplittableRandom(seed));
+			}
+
+			void run() {
+				long where = Animal.findFood(context, hunter, nextCell());
+				if (where != Field.NO_CELL) {
+					// Put the rabbit back so the field stays the same.
+					context.merge();
+					population.setAlive(field.getOccupant(where), true);
+				}
+			}
+		});
+
+		cases.add(new FieldCase("Animal.findFood.lynx") {
+			private int hunter;
+			private StepContext context;
+
+			void setUp(int width, int height, double density, long seed) {
+				super.setUp(width, height, density, seed);
+				// A hunter that isn't on the field, so that it can look
+				// anywhere.
+				Parameters parameters = new Parameters();
+				hunter = Animal.create(population, parameters, Animal.LYNX,
+						false, Field.toCell(0, 0), rand);
+				context = new StepContext(population, parameters);
+				context.begin(field, field, new SplittableRandom(seed));
+			}
+
+			void run() {
+				long where = Animal.findFood(context, hunter, nextCell());
+				if (where != Field.NO_CELL) {
+					// Put the fox back so the field stays the same.
+					context.merge();
+					population.setAlive(field.getOccupant(where), true);
+				}
+			}
+		});
+
+		// How the step loop used to drop the dead: one ArrayList.remove,
+		// and so one shift of the rest of the list, per dead animal.
+		cases.add(new DieOffCase("DieOff.ArrayList.remove") {
+			private Integer[] boxed;
+			private ArrayList<Integer> list;
+
+			void setUp(int width, int height, double density, long seed) {
+				super.setUp(width, height, density, seed);
+				boxed = new Integer[animals];
+				for (int i = 0; i < animals; i++) {
+					boxed[i] = Integer.valueOf(i);
+				}
+				list = new ArrayList<Integer>(animals);
+			}
+
+			void run() {
+				list.clear();
+				for (int i = 0; i < animals; i++) {
+					list.add(boxed[i]);
+				}
+				for (int i = 0; i < list.size();) {
+					if (dies[list.get(i)]) {
+						list.remove(i);
+					} else {
+						i++;
+					}
+				}
+			}
+
+			boolean supports(int width, int height, double density) {
+				return width * height * density <= MAX_LIST_ANIMALS;
+			}
+		});
+
+		// How it is done now: mark the dead, then one compaction pass.
+		cases.add(new DieOffCase("DieOff.Population.compact") {
+			private Population population;
+			private Field field;
+
+			void setUp(int width, int height, double density, long seed) {
+				super.setUp(width, height, density, seed);
+				population = new Population(animals);
+				// The animals are left off the field, so that only the
+				// population's own work is measured.
+				field = new Field(width, height);
+			}
+
+			void run() {
+				population.clear();
+				for (int i = 0; i < animals; i++) {
+					population.add(Animal.RABBIT, 0, 0, Field.toCell(0, 0));
+				}
+				for (int i = 0; i < animals; i++) {
+					if (dies[i]) {
+						population.kill(i);
+					}
+				}
+				population.compact(field);
+			}
+		});
+
+		// What the engine does to the spare field at the end of every step.
+		cases.add(new FieldCase("Field.clear") {
+			void run() {
+				field.clear();
+			}
+		});
+
+		cases.add(new FieldCase("FieldStats.generateCounts") {
+			void run() {
+				new FieldStats(population).generateCounts(field);
+			}
+		});
+
+		cases.add(new FieldCase("FieldStats.isViable") {
+			private FieldStats stats;
+
+			void setUp(int width, int height, double density, long seed) {
+				super.setUp(width, height, density, seed);
+				stats = new FieldStats(population);
+			}
+
+			void run() {
+				stats.isViable(field);
+			}
+		});
+
+		cases.add(new StepCase("SimulationEngine.step", 1));
+		for (int threads : STEP_THREADS) {
+			cases.add(new StepCase("SimulationEngine.step.t" + threads, threads));
+		}
+		cases.add(new StepCase("SimulationEngine.step.sparse", 1, Field.SPARSE));
+		cases.add(new StepCase("SimulationEngine.step.sparse.t4", 4, Field.SPARSE));
+
+		// The same work on each of the other layouts of the board.
+		String[] layoutNames = { "tiled", "morton" };
+		int[] layouts = { Field.TILED, Field.MORTON };
+		for (int i = 0; i < layouts.length; i++) {
+			String suffix = "." + layoutNames[i];
+			cases.add(new FieldCase("Field.freeAdjacentCell" + suffix, layouts[i]) {
+				void run() {
+					field.freeAdjacentCell(nextCell(), rand);
+				}
+			});
+			cases.add(new FieldCase("FieldStats.generateCounts" + suffix, layouts[i]) {
+				void run() {
+					new FieldStats(population).generateCounts(field);
+				}
+			});
+			cases.add(new StepCase("SimulationEngine.step" + suffix, 1, layouts[i]));
+		}
+
+		return cases;
+	}
+
+	private static long allocatedBytes() {
+		if (threads == null) {
+			return 0;
+		}
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()) {
+				threads.setThreadAllocatedMemoryEnabled(true);
+				return threads;
+			}
+		}
+		return null;
+	}
+}
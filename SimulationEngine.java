@@ -0,0 +1,590 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The core of the predator-prey simulation, with no dependency on a graphics
+ * window. The engine owns the current and updated fields, the population of
+ * animals and the population statistics, and can be stepped on a machine
+ * with no display. Graphs, views and logs follow the simulation by
+ * registering a {@link StepListener}; an engine without listeners does no
+ * drawing or graph bookkeeping at all.
+ *
+ * A step can be spread over several threads with setThreads(). Every random
+ * choice, from the starting population to the moves the animals make during
+ * a step, is drawn from a stream derived from the engine's seed, so two
+ * engines given the same seed (and number of threads) run identically.
+ */
+public class SimulationEngine {
+	// The number of passes over the animals in a step. Each species acts in
+	// one of them (see Animal.ACTING_PASSES): first the rabbits and foxes,
+	// then the lynxes.
+	static final int PASSES = 2;
+
+	// The side of a tile when stepping in parallel, unless set otherwise.
+	private static final int DEFAULT_TILE_SIZE = 64;
+
+	// How the animals age, breed and feed, and how the field is populated.
+	private Parameters parameters;
+
+	// Every animal in the field, of every species.
+	private Population population;
+
+	// The current state of the field.
+	private Field field;
+
+	// A second field, used to build the next stage of the simulation.
+	private Field updatedField;
+
+	// The current step of the simulation.
+	private int step;
+
+	// Object to keep track of statistics of animal populations
+	private FieldStats stats;
+
+	// Everything that is told when a step completes.
+	private List<StepListener> listeners;
+
+	// The seed from which the random streams of each step are derived.
+	private long seed;
+
+	// The context the animals act through when stepping on one thread.
+	private StepContext context;
+
+	// The number of threads a step is spread over.
+	private int threads;
+
+	// The side of a tile when stepping in parallel.
+	private int tileSize;
+
+	// Steps the field on several threads, once there is more than one.
+	private ParallelStep parallel;
+
+	// Where the steps are measured, or null if they aren't.
+	private StepMetrics metrics;
+
+	// The births and deaths, for whoever subscribes to them.
+	private final EventStream events = new EventStream();
+
+	/**
+	 * Create a simulation engine with a field of the given size and a random
+	 * seed.
+	 *
+	 * @param width
+	 *            Width of the field. Must be greater than zero.
+	 * @param height
+	 *            Height of the field. Must be greater than zero.
+	 */
+	public SimulationEngine(int width, int height) {
+		this(width, height, new Random().nextLong());
+	}
+
+	/**
+	 * Create a simulation engine with a field of the given size.
+	 *
+	 * @param width
+	 *            Width of the field. Must be greater than zero.
+	 * @param height
+	 *            Height of the field. Must be greater than zero.
+	 * @param seed
+	 *            The seed for every random choice the simulation makes.
+	 */
+	public SimulationEngine(int width, int height, long seed) {
+		this(width, height, seed, false);
+	}
+
+	/**
+	 * Create a simulation engine with a field of the given size, stored
+	 * either densely or in chunks (see SparseField). A sparse field is the
+	 * one to use for a huge world with few animals in it.
+	 *
+	 * @param width
+	 *            Width of the field. Must be greater than zero.
+	 * @param height
+	 *            Height of the field. Must be greater than zero.
+	 * @param seed
+	 *            The seed for every random choice the simulation makes.
+	 * @param sparse
+	 *            Whether to store the field in chunks.
+	 */
+	public SimulationEngine(int width, int height, long seed, boolean sparse) {
+		this(width, height, seed, sparse ? Field.SPARSE : Field.DEFAULT_LAYOUT);
+	}
+
+	/**
+	 * Create a simulation engine with a field of the given size, stored in
+	 * the given layout.
+	 *
+	 * @param width
+	 *            Width of the field. Must be greater than zero.
+	 * @param height
+	 *            Height of the field. Must be greater than zero.
+	 * @param seed
+	 *            The seed for every random choice the simulation makes.
+	 * @param layout
+	 *            How to store the field: Field.ROW_MAJOR, TILED, MORTON or
+	 *            SPARSE.
+	 */
+	public SimulationEngine(int width, int height, long seed, int layout) {
+		this(width, height, seed, layout, new Parameters());
+	}
+
+	/**
+	 * Create a simulation engine with a field of the given size, stored in
+	 * the given layout, whose animals follow the given parameters.
+	 *
+	 * @param width
+	 *            Width of the field. Must be greater than zero.
+	 * @param height
+	 *            Height of the field. Must be greater than zero.
+	 * @param seed
+	 *            The seed for every random choice the simulation makes.
+	 * @param layout
+	 *            How to store the field: Field.ROW_MAJOR, TILED, MORTON or
+	 *            SPARSE.
+	 * @param parameters
+	 *            The parameters of the simulation. The engine keeps a copy.
+	 */
+	public SimulationEngine(int width, int height, long seed, int layout,
+			Parameters parameters) {
+		this.seed = seed;
+		this.parameters = new Parameters(parameters);
+		population = new Population();
+		field = Field.create(width, height, layout);
+		updatedField = Field.create(width, height, layout);
+		stats = new FieldStats(population);
+		listeners = new ArrayList<StepListener>();
+		context = new StepContext(population, this.parameters);
+		threads = 1;
+		tileSize = DEFAULT_TILE_SIZE;
+
+		// Setup a valid starting point.
+		reset();
+	}
+
+	/**
+	 * Register a listener to be told about every completed step.
+	 *
+	 * @param listener
+	 *            The listener to add.
+	 */
+	public void addStepListener(StepListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stop telling a listener about completed steps.
+	 *
+	 * @param listener
+	 *            The listener to remove.
+	 */
+	public void removeStepListener(StepListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Run the simulation from its current state for the given number of steps.
+	 * Stop before the given number of steps if it ceases to be viable.
+	 *
+	 * @param numSteps
+	 *            The number of steps to run for.
+	 * @return The number of steps actually run.
+	 */
+	public int run(int numSteps) {
+		int stepsRun = 0;
+		while (stepsRun < numSteps && isViable()) {
+			step();
+			stepsRun++;
+		}
+		return stepsRun;
+	}
+
+	/**
+	 * Set the number of threads a step is spread over. With one thread the
+	 * animals act in slot order over the whole field. With more, the field is
+	 * stepped tile by tile (see ParallelStep); the outcome then depends on
+	 * the tile size but not on the number of threads.
+	 *
+	 * @param threads
+	 *            The number of threads. Must be greater than zero.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, not "
+					+ threads);
+		}
+		this.threads = threads;
+		discardParallelStep();
+	}
+
+	public int getThreads() {
+		return this.threads;
+	}
+
+	/**
+	 * Set the side of the tiles the field is cut into when stepping on more
+	 * than one thread.
+	 *
+	 * @param tileSize
+	 *            The side of a tile, in cells. Must be at least
+	 *            ParallelStep.MIN_TILE_SIZE.
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < ParallelStep.MIN_TILE_SIZE) {
+			throw new IllegalArgumentException("Tile size " + tileSize
+					+ " is less than " + ParallelStep.MIN_TILE_SIZE);
+		}
+		this.tileSize = tileSize;
+		discardParallelStep();
+	}
+
+	public int getTileSize() {
+		return this.tileSize;
+	}
+
+	/**
+	 * Stop any threads the engine has started. Stepping afterwards starts
+	 * them again.
+	 */
+	public void shutdown() {
+		discardParallelStep();
+	}
+
+	/**
+	 * Run the simulation from its current state for a single step. Iterate over
+	 * the whole field updating the state of each fox, rabbit and lynx.
+	 */
+	public void step() {
+		StepMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.stepStarted(this);
+		}
+		step++;
+
+		// Animals born during the step are added after this point and
+		// don't act until the next step.
+		int existing = population.size();
+
+		// Only record events while someone is listening for them.
+		EventStream recording = events.hasSubscribers() ? events : null;
+
+		if (threads > 1) {
+			if (parallel == null) {
+				parallel = new ParallelStep(population, parameters,
+						field.getWidth(), field.getHeight(), tileSize, threads);
+			}
+			parallel.step(field, updatedField, existing, seed, step, metrics,
+					recording);
+		} else {
+			// Let every animal act in its species' pass: first the rabbits
+			// and foxes run around, then the lynxes hunt.
+			context.recordEvents(recording, step);
+			for (int pass = 0; pass < PASSES; pass++) {
+				context.begin(field, updatedField, stream(seed, step, pass, 0));
+				for (int i = 0; i < existing; i++) {
+					act(context, i, pass);
+				}
+				if (metrics != null) {
+					metrics.phaseEnded(StepMetrics.ACT + pass);
+				}
+				context.merge();
+				if (metrics != null) {
+					metrics.phaseEnded(StepMetrics.MERGE);
+				}
+			}
+		}
+
+		// Drop the animals that died during the step, both from the
+		// population and from the field they were placed in.
+		population.compact(updatedField);
+		if (metrics != null) {
+			metrics.phaseEnded(StepMetrics.MERGE);
+		}
+
+		// Swap the field and updatedField at the end of the step.
+		Field temp = field;
+		field = updatedField;
+		updatedField = temp;
+		updatedField.clear();
+		if (metrics != null) {
+			metrics.phaseEnded(StepMetrics.SWAP);
+		}
+
+		for (StepListener listener : listeners) {
+			listener.stepCompleted(this);
+		}
+		if (metrics != null) {
+			metrics.phaseEnded(StepMetrics.LISTENERS);
+			metrics.stepEnded(this);
+		}
+	}
+
+	/**
+	 * Start or stop measuring the steps. Call this between steps, on the
+	 * thread that steps the engine.
+	 *
+	 * @param metrics
+	 *            The metrics to measure into, or null to stop measuring.
+	 */
+	public void setMetrics(StepMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return The metrics the steps are measured into, or null if they
+	 *         aren't.
+	 */
+	public StepMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @return The stream of births and deaths. Subscribing to it can be done
+	 *         from any thread.
+	 */
+	public EventStream getEvents() {
+		return this.events;
+	}
+
+	/**
+	 * Let an animal act, if it is alive and its species acts in the given
+	 * pass.
+	 *
+	 * @param context
+	 *            The context to act through.
+	 * @param slot
+	 *            The slot of the animal.
+	 * @param pass
+	 *            The pass of the step.
+	 */
+	static void act(StepContext context, int slot, int pass) {
+		Population population = context.population;
+		if (population.isAlive(slot)
+				&& Animal.ACTING_PASSES[population.getSpecies(slot)] == pass) {
+			Animal.act(context, slot);
+		}
+	}
+
+	/**
+	 * Make the random stream for one part of a step. Each combination of
+	 * seed, step, pass and tile gets a stream of its own, so the choices made
+	 * in a tile don't depend on what happens in the others.
+	 *
+	 * @param seed
+	 *            The engine's seed.
+	 * @param step
+	 *            The number of the step.
+	 * @param pass
+	 *            The pass of the step.
+	 * @param tile
+	 *            The tile, or 0 when the field is stepped as a whole.
+	 * @return The random stream.
+	 */
+	static SplittableRandom stream(long seed, int step, int pass, int tile) {
+		long key = mix(seed + step * 0x9E3779B97F4A7C15L);
+		key = mix(key + pass * 0xC2B2AE3D27D4EB4FL);
+		key = mix(key + tile * 0x165667B19E3779F9L);
+		return new SplittableRandom(key);
+	}
+
+	// The finalizer of SplitMix64: spreads every bit of its input over the
+	// whole of its output.
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private void discardParallelStep() {
+		if (parallel != null) {
+			parallel.shutdown();
+			parallel = null;
+		}
+	}
+
+	/**
+	 * Reset the simulation to a starting position. The same seed always gives
+	 * the same starting position.
+	 */
+	public void reset() {
+		// Steps are numbered from one, so step zero's stream is free for
+		// the board.
+		reset(parameters.getDensity(), stream(seed, 0, 0, 0));
+	}
+
+	/**
+	 * Reset the simulation with the field filled to the given density,
+	 * keeping the usual mix of species. The benchmarks use this to get a
+	 * starting point of a chosen density that is the same from run to run.
+	 *
+	 * @param density
+	 *            The fraction of locations that should hold an animal.
+	 * @param rand
+	 *            The random stream that decides where animals are placed.
+	 */
+	void reset(double density, SplittableRandom rand) {
+		step = 0;
+		population.clear();
+		field.clear();
+		updatedField.clear();
+		initializeBoard(field, density, rand);
+	}
+
+	/**
+	 * Populate a field with lynxes, foxes and rabbits.
+	 *
+	 * @param field
+	 *            The field to be populated.
+	 * @param density
+	 *            The fraction of locations that should hold an animal.
+	 * @param rand
+	 *            The random stream that decides where animals are placed.
+	 */
+	private void initializeBoard(Field field, double density,
+			SplittableRandom rand) {
+		field.clear();
+		double[] shares = parameters.creationShares();
+		double fullDensity = parameters.getDensity();
+		for (int row = 0; row < field.getHeight(); row++) {
+			for (int col = 0; col < field.getWidth(); col++) {
+				double r = rand.nextDouble();
+				if (r >= density) {
+					continue;
+				}
+				// Rescale so the species mix does not depend on the density.
+				double which = r / density * fullDensity;
+				long cell = Field.toCell(col, row);
+				int species = Parameters.speciesAt(which, shares);
+				Animal.create(population, parameters, species, true, cell,
+						rand);
+			}
+		}
+		population.shuffle(rand);
+		for (int i = 0; i < population.size(); i++) {
+			field.put(i, population.getSpecies(i), population.getCell(i));
+		}
+	}
+
+	/**
+	 * Remove every animal in a square block of the field. Locations outside
+	 * the field are ignored.
+	 *
+	 * @param centre
+	 *            The location at the centre of the block.
+	 * @param radius
+	 *            Half the side of the block.
+	 */
+	public void clearArea(Location centre, int radius) {
+		for (int x = centre.getCol() - radius; x < centre.getCol() + radius; x++) {
+			for (int y = centre.getRow() - radius; y < centre.getRow() + radius; y++) {
+				if (field.isLegalLocation(x, y)) {
+					int animal = field.getOccupant(x, y);
+					if (animal != Field.EMPTY) {
+						population.kill(animal);
+					}
+				}
+			}
+		}
+		population.compact(field);
+	}
+
+	/**
+	 * Determine whether the simulation is still viable.
+	 *
+	 * @return true If there is more than one species alive.
+	 */
+	public boolean isViable() {
+		if (metrics == null) {
+			return stats.isViable(field);
+		}
+		long start = System.nanoTime();
+		boolean viable = stats.isViable(field);
+		metrics.record(StepMetrics.COUNT, System.nanoTime() - start);
+		return viable;
+	}
+
+	/**
+	 * @return The counters for every species in the current field.
+	 */
+	public Collection<Counter> getCounts() {
+		return stats.getCounts(field);
+	}
+
+	/**
+	 * @return A string describing what is in the field.
+	 */
+	public String getPopulationDetails() {
+		return stats.getPopulationDetails(field);
+	}
+
+	public Field getField() {
+		return this.field;
+	}
+
+	public int getStep() {
+		return this.step;
+	}
+
+	public Population getPopulation() {
+		return this.population;
+	}
+
+	public FieldStats getStats() {
+		return this.stats;
+	}
+
+	public long getSeed() {
+		return this.seed;
+	}
+
+	/**
+	 * @return A copy of the parameters of the simulation.
+	 */
+	public Parameters getParameters() {
+		return new Parameters(parameters);
+	}
+
+	/**
+	 * Put the engine in a saved state (see Snapshot). Stepping serially and
+	 * stepping tile by tile move the animals in different orders, so if the
+	 * saved run was stepped one way and the engine is set up for the other,
+	 * the number of threads is changed: to one, or to as many as there are
+	 * processors (at least two). Otherwise it is kept, since the number of
+	 * threads doesn't change the outcome of a tiled step.
+	 *
+	 * @param population
+	 *            The animals, with no dead among them.
+	 * @param field
+	 *            The field holding them.
+	 * @param step
+	 *            The step the state was saved at.
+	 * @param seed
+	 *            The seed the saved simulation was run with.
+	 * @param tileSize
+	 *            The tile size it was run with.
+	 * @param tiled
+	 *            Whether it was stepped tile by tile.
+	 * @param parameters
+	 *            The parameters it was run with. The engine keeps a copy.
+	 */
+	void restore(Population population, Field field, int step, long seed,
+			int tileSize, boolean tiled, Parameters parameters) {
+		this.population = population;
+		this.field = field;
+		this.updatedField = Field.create(field.getWidth(), field.getHeight(),
+				field.getLayout());
+		this.step = step;
+		this.seed = seed;
+		this.tileSize = tileSize;
+		this.parameters = new Parameters(parameters);
+		if (tiled != threads > 1) {
+			threads = tiled ? Math.max(2, Runtime.getRuntime()
+					.availableProcessors()) : 1;
+		}
+		stats = new FieldStats(population);
+		context = new StepContext(population, this.parameters);
+		discardParallelStep();
+	}
+}
@@ -1,48 +1,39 @@
+import java.nio.file.Paths;
 import java.util.Random;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Collections;
-import java.awt.Color;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import processing.core.PApplet;
 
 /**
  * A simple predator-prey simulator, based on a field containing rabbits and
- * foxes.
+ * foxes. The simulation itself is run by a {@link SimulationEngine}; this
+ * class connects the engine to a Processing window, drawing the field and a
+ * graph of the populations.
+ * 
+ * Once start() is called the simulation runs on a thread of its own, as
+ * fast as it can, and the window's draw loop just draws the latest frame
+ * it was handed (see Frame). Frames pass between the threads through two
+ * atomic references and are only filled when the window has finished with
+ * the last one, so neither thread ever waits for the other. Everything the
+ * window asks for (pausing, resetting, saving, loading, clearing an area)
+ * is queued and done on the simulation thread between steps.
  * 
  * @author David J. Barnes and Michael Kolling. Modified by David Dobervich
  *         2007-2013.
  * @version 2006.03.30
  * 
  */
-public class Simulator {
+public class Simulator implements StepListener {
 	// The default width for the grid.
 	private static final int DEFAULT_WIDTH = 80;
 
 	// The default height of the grid.
 	private static final int DEFAULT_HEIGHT = 80;
 
-	// The probability that a lynx will be created in any given grid position.
-	private static final double LYNX_CREATION_PROBABILITY = 0.04;
-
-	// Lists of animals in the field. Separate lists are kept for ease of
-	// iteration.
-	private List<Animal> animals;
-	private List<Lynx> lynxes;
-
-	// The current state of the field.
-	private Field field;
-
-	// A second field, used to build the next stage of the simulation.
-	private Field updatedField;
-
-	// The current step of the simulation.
-	private int step;
+	// The headless simulation: fields, animals and statistics.
+	private SimulationEngine engine;
 
 	// A graphical view of the simulation.
 	private FieldDisplay view;
@@ -53,8 +44,41 @@ public class Simulator {
 	// Processing Applet (the graphics window we draw to)
 	private PApplet graphicsWindow;
 
-	// Object to keep track of statistics of animal populations
-	private FieldStats stats;
+	// How long a paused simulation thread waits for something to do before
+	// checking whether the window wants a new frame.
+	private static final long PAUSED_POLL_MILLIS = 10;
+
+	// The thread running the simulation, or null if it is run by the caller.
+	private Thread stepper;
+	private volatile boolean running;
+
+	// Whether the simulation thread is holding off stepping.
+	private boolean paused;
+
+	// Things the window asked for, waiting to be done between steps.
+	private final LinkedBlockingQueue<Runnable> commands = new LinkedBlockingQueue<Runnable>();
+
+	// The number of times the simulation has been reset or loaded.
+	private int generation;
+
+	// The frame being drawn, and the generation it belongs to.
+	private Frame shownFrame;
+	private int shownGeneration;
+
+	// A frame filled by the simulation thread and not yet drawn, and an empty
+	// frame for it to fill next. Each holds null when there is none.
+	private final AtomicReference<Frame> readyFrame = new AtomicReference<Frame>();
+	private final AtomicReference<Frame> freeFrame = new AtomicReference<Frame>();
+
+	// Whether the window has missed a change because it had no free frame.
+	private boolean framePending;
+
+	// Counts up whenever the field may have changed, so that the view can
+	// skip a field it has already drawn.
+	private int fieldVersion;
+
+	// Where the steps and drawing are measured, or null if they aren't.
+	private volatile StepMetrics metrics;
 
 	/**
 	 * Construct a simulation field with default size.
@@ -72,6 +96,38 @@ public class Simulator {
 	 *          Width of the field. Must be greater than zero.
 	 */
 	public Simulator(int width, int height) {
+		this(width, height, new Random().nextLong());
+	}
+
+	/**
+	 * Create a simulation field with the given size. Two simulators created
+	 * with the same seed run identically.
+	 * 
+	 * @param width
+	 *          Width of the field. Must be greater than zero.
+	 * @param height
+	 *          Height of the field. Must be greater than zero.
+	 * @param seed
+	 *          The seed for every random choice the simulation makes.
+	 */
+	public Simulator(int width, int height, long seed) {
+		this(width, height, seed, false);
+	}
+
+	/**
+	 * Create a simulation field with the given size, stored either densely
+	 * or in chunks. A sparse field suits a huge world with few animals in it.
+	 * 
+	 * @param width
+	 *          Width of the field. Must be greater than zero.
+	 * @param height
+	 *          Height of the field. Must be greater than zero.
+	 * @param seed
+	 *          The seed for every random choice the simulation makes.
+	 * @param sparse
+	 *          Whether to store the field in chunks (see SparseField).
+	 */
+	public Simulator(int width, int height, long seed, boolean sparse) {
 		if (width <= 0 || height <= 0) {
 			System.out.println("The dimensions must be greater than zero.");
 			System.out.println("Using default values.");
@@ -79,22 +135,16 @@ public class Simulator {
 			width = DEFAULT_WIDTH;
 		}
 
-		animals = new ArrayList<Animal>();
-		lynxes = new ArrayList<Lynx>();
-		field = new Field(width, height);
-		updatedField = new Field(width, height);
-		stats = new FieldStats();
-
-		// Setup a valid starting point.
-		reset();
+		engine = new SimulationEngine(width, height, seed, sparse);
 	}
 
 	public void setGUI(PApplet p, int x, int y, int display_width,
 			int display_height) {
 		this.graphicsWindow = p;
+		Field field = engine.getField();
 
 		// Create a view of the state of each location in the field.
-		view = new FieldDisplay(p, this.field, x, y, display_width, display_height);
+		view = new FieldDisplay(p, field, x, y, display_width, display_height);
 		view.setColor(Rabbit.class, p.color(155, 155, 155));
 		view.setColor(Fox.class, p.color(200, 0, 255));
 		view.setColor(Lynx.class, p.color(51,255, 51));
@@ -103,15 +153,139 @@ public class Simulator {
 		graph.title = "Fox, Rabbit, and Lynx Populations";
 		graph.xlabel = "Time";
 		graph.ylabel = "Pop.\t\t";
-		graph.setColor(Rabbit.class, p.color(155, 155, 155));
-		graph.setColor(Fox.class, p.color(200, 0, 255));
-		graph.setColor(Fox.class, p.color(51, 255, 51));
+		// The graph has one series per species, numbered by species id.
+		graph.setColor(Animal.RABBIT, p.color(155, 155, 155));
+		graph.setColor(Animal.FOX, p.color(200, 0, 255));
+		graph.setColor(Animal.LYNX, p.color(51, 255, 51));
+
+		// The graph only needs updating once there is a window to draw it in.
+		engine.addStepListener(this);
 	}
 
 	public void setGUI(PApplet p) {
 		setGUI(p, 10, 10, p.width - 10, 400);
 	}
 
+	/**
+	 * Run the simulation on a thread of its own from now on. The window
+	 * should then only draw, and ask for everything else through the
+	 * methods here, which queue it for the simulation thread.
+	 */
+	public void start() {
+		if (stepper != null) {
+			return;
+		}
+		freeFrame.set(new Frame());
+		publishFrame();
+		running = true;
+		stepper = new Thread("Simulation") {
+			public void run() {
+				runSteps();
+			}
+		};
+		stepper.setDaemon(true);
+		stepper.start();
+	}
+
+	/**
+	 * Stop the simulation thread, after the step or command it is in the
+	 * middle of. Commands still queued are done by the caller.
+	 */
+	public void stop() {
+		if (stepper == null) {
+			return;
+		}
+		// The thread isn't interrupted: it could be in the middle of writing
+		// a snapshot, and an interrupt would close the file under it. A
+		// paused thread is woken by a command that does nothing.
+		running = false;
+		commands.add(new Runnable() {
+			public void run() {
+			}
+		});
+		try {
+			stepper.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stepper = null;
+		Runnable command;
+		while ((command = commands.poll()) != null) {
+			command.run();
+		}
+		fieldVersion++;
+	}
+
+	/**
+	 * Pause or unpause the simulation thread.
+	 * 
+	 * @param paused
+	 *          true to stop stepping.
+	 */
+	public void setPaused(final boolean paused) {
+		perform(new Runnable() {
+			public void run() {
+				Simulator.this.paused = paused;
+			}
+		});
+	}
+
+	/**
+	 * What the simulation thread does: carry out the window's commands and
+	 * step the simulation in between, until stopped.
+	 */
+	private void runSteps() {
+		while (running) {
+			Runnable command;
+			try {
+				if (paused) {
+					command = commands.poll(PAUSED_POLL_MILLIS,
+							TimeUnit.MILLISECONDS);
+				} else {
+					command = commands.poll();
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (command != null) {
+				command.run();
+				publishFrame();
+			} else if (!paused) {
+				engine.step();
+			} else if (framePending) {
+				publishFrame();
+			}
+		}
+	}
+
+	/**
+	 * Picture the simulation in a frame and hand it to the window, if the
+	 * window has given a frame back to fill.
+	 */
+	private void publishFrame() {
+		Frame frame = freeFrame.getAndSet(null);
+		if (frame == null) {
+			framePending = true;
+			return;
+		}
+		frame.capture(engine, generation, ++fieldVersion);
+		readyFrame.set(frame);
+		framePending = false;
+	}
+
+	/**
+	 * Do something to the simulation: straight away if it has no thread of
+	 * its own, or on its thread between steps if it has.
+	 */
+	private void perform(Runnable command) {
+		if (stepper != null) {
+			commands.add(command);
+		} else {
+			command.run();
+			fieldVersion++;
+		}
+	}
+
 	/**
 	 * Run the simulation from its current state for a reasonably long period,
 	 * e.g. 500 steps.
@@ -127,10 +301,12 @@ public class Simulator {
 	 * @param numSteps
 	 *          The number of steps to run for.
 	 */
-	public void simulate(int numSteps) {
-		for (int step = 1; step <= numSteps && isViable(); step++) {
-			simulateOneStep();
-		}
+	public void simulate(final int numSteps) {
+		perform(new Runnable() {
+			public void run() {
+				engine.run(numSteps);
+			}
+		});
 	}
 
 	/**
@@ -138,48 +314,26 @@ public class Simulator {
 	 * the whole field updating the state of each fox and rabbit.
 	 */
 	public void simulateOneStep() {
-		step++;
-
-		// New List to hold newborn rabbits.
-		List<Animal> newAnimals = new ArrayList<Animal>();
-
-		// Loop through all Rabbits. Let each run around.
-		for (int i = 0; i < animals.size(); i++) {
-			Animal animal = animals.get(i);
-			animal.act(field, updatedField, newAnimals);
-			if (!animal.isAlive()) {
-				animals.remove(i);
-				i--;
+		perform(new Runnable() {
+			public void run() {
+				engine.step();
 			}
-		}
+		});
+	}
 
-		// Add new born rabbits to the main list of rabbits.
-		animals.addAll(newAnimals);
-		List<Lynx> newLynxes = new ArrayList<Lynx>();
-		for (int i =0; i < lynxes.size(); i++) {
-			Lynx lynx = lynxes.get(i);
-			lynx.hunt(field, updatedField, newLynxes);
-			if (!lynx.isAlive()) {
-				lynxes.remove(i);
-				i--;
-			}
-			
+	public void stepCompleted(SimulationEngine engine) {
+		if (stepper != null) {
+			publishFrame();
+		} else {
+			fieldVersion++;
+			updateGraph();
 		}
-
-		// Swap the field and updatedField at the end of the step.
-		Field temp = field;
-		field = updatedField;
-		updatedField = temp;
-		updatedField.clear();
-
-		stats.generateCounts(field);
-		updateGraph();
 	}
 
 	public void updateGraph() {
-		Counter count;
-		for (Counter c : stats.getCounts()) {
-			graph.plotPoint(step, c.getCount(), c.getClassName());
+		FieldStats stats = engine.getStats();
+		for (int species = 0; species < Animal.SPECIES_COUNT; species++) {
+			graph.plotPoint(engine.getStep(), stats.getCount(species), species);
 		}
 	}
 
@@ -187,110 +341,145 @@ public class Simulator {
 	 * Reset the simulation to a starting position.
 	 */
 	public void reset() {
-		step = 0;
-		animals.clear();
-		lynxes.clear();
-		field.clear();
-		updatedField.clear();
-		initializeBoard(field);
-
-		if (graph != null)
-			graph.clear();
+		perform(new Runnable() {
+			public void run() {
+				engine.reset();
+				startedAgain();
+			}
+		});
 
 		// Show the starting state in the view.
 		// view.showStatus(step, field);
 	}
 
 	/**
-	 * Populate a field with lynxes, foxes and rabbits.
+	 * Note that the simulation has been reset or loaded, so the graph has to
+	 * start again: straight away, or when the window draws the next frame.
+	 */
+	private void startedAgain() {
+		generation++;
+		if (stepper == null && graph != null)
+			graph.clear();
+	}
+
+	/**
+	 * Start or stop measuring the steps and the drawing (see StepMetrics).
 	 * 
-	 * @param field
-	 *          The field to be populated.
+	 * @param metrics
+	 *          The metrics to measure into, or null to stop measuring.
 	 */
-	private void initializeBoard(Field field) {
-		Random rand = new Random();
-		field.clear();
-		for (int row = 0; row < field.getHeight(); row++) {
-			for (int col = 0; col < field.getWidth(); col++) {
-				if (rand.nextDouble() <= LYNX_CREATION_PROBABILITY) {
-					Lynx lynx = new Lynx(true);
-					lynx.setLocation(col, row);
-					lynxes.add(lynx);
-					field.put(lynx, col, row);
-				} else if (rand.nextDouble() <= CREATION_PROBABILITY) {
-					Animal animal = new Animal(true);
-					animal.setLocation(col, row);
-					animals.add(animal);
-					field.put(animal, col, row);
+	public void setMetrics(final StepMetrics metrics) {
+		this.metrics = metrics;
+		perform(new Runnable() {
+			public void run() {
+				engine.setMetrics(metrics);
 			}
-		}
-		Collections.shuffle(animals);
-		Collections.shuffle(lynxes);}
+		});
 	}
 
-	private boolean isViable() {
-		return stats.isViable(field);
+	public StepMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	public SimulationEngine getEngine() {
+		return this.engine;
 	}
 
 	public Field getField() {
-		return this.field;
+		return engine.getField();
 	}
 
-	// Draw field if we have a gui defined
+	// Draw field if we have a gui defined. With a simulation thread, this
+	// draws the latest frame, and plots it on the graph.
 	public void drawField() {
-		if ((graphicsWindow != null) && (view != null)) {
-			view.drawField(this.field);
+		StepMetrics metrics = this.metrics;
+		long start = metrics != null ? System.nanoTime() : 0;
+		if (stepper != null) {
+			takeFrame();
+			if (metrics != null) {
+				long now = System.nanoTime();
+				metrics.record(StepMetrics.GRAPH, now - start);
+				start = now;
+			}
+			if ((graphicsWindow != null) && (view != null) && (shownFrame != null)) {
+				view.drawFrame(shownFrame);
+			}
+		} else if ((graphicsWindow != null) && (view != null)) {
+			view.drawField(engine.getField(), fieldVersion);
 		}
-	}
-
-	public void drawGraph() {
-		graph.draw();
-	}
-
-	public void writeToFile(String writefile) {
-		try {
-			Record r = new Record(animals, this.field, this.step);
-			FileOutputStream outStream = new FileOutputStream(writefile);
-			ObjectOutputStream objectOutputFile = new ObjectOutputStream(outStream);
-			objectOutputFile.writeObject(r);
-			objectOutputFile.close();
-		} catch (Exception e) {
-			System.out.println("Something went wrong: " + e.getMessage());
+		if (metrics != null) {
+			metrics.record(StepMetrics.DRAW, System.nanoTime() - start);
 		}
 	}
 
-	public void readFile(String readfile) {
-		try {
-			FileInputStream inputStream = new FileInputStream(readfile);
-			ObjectInputStream objectInputFile = new ObjectInputStream(inputStream);
-			Record r = (Record) objectInputFile.readObject();
-			setAnimals(r.getAnimals());
-			setField(r.getField());
-			setStep(r.getSteps());
-			objectInputFile.close();
-			// clear field
-		} catch (Exception e) {
-			System.out.println("Something went wrong: " + e.getMessage());
+	/**
+	 * Take the newest frame from the simulation thread, if there is one, and
+	 * give the one it replaces back to be filled.
+	 */
+	private void takeFrame() {
+		Frame frame = readyFrame.getAndSet(null);
+		if (frame == null) {
+			return;
+		}
+		freeFrame.set(shownFrame != null ? shownFrame : new Frame());
+		shownFrame = frame;
+		if (graph != null) {
+			if (frame.generation != shownGeneration) {
+				graph.clear();
+				shownGeneration = frame.generation;
+			}
+			for (int species = 0; species < Animal.SPECIES_COUNT; species++) {
+				graph.plotPoint(frame.step, frame.counts[species], species);
+			}
 		}
 	}
 
-
-	private void setField(Field field2) {
-		// TODO Auto-generated method stub
-		
-	}
-
-	private void setStep(int steps) {
-		// TODO Auto-generated method stub
-		
+	public void drawGraph() {
+		StepMetrics metrics = this.metrics;
+		if (metrics == null) {
+			graph.draw();
+			return;
+		}
+		long start = System.nanoTime();
+		graph.draw();
+		metrics.record(StepMetrics.DRAW, System.nanoTime() - start);
 	}
 
-	private void setAnimals(List<Animal> animals2) {
-		animals = animals2;
+	/**
+	 * Save the state of the simulation (see Snapshot).
+	 * 
+	 * @param writefile
+	 *          The file to save to.
+	 */
+	public void writeToFile(final String writefile) {
+		perform(new Runnable() {
+			public void run() {
+				try {
+					Snapshot.write(engine, Paths.get(writefile));
+				} catch (Exception e) {
+					System.out.println("Something went wrong: " + e.getMessage());
+				}
+			}
+		});
 	}
 
-	private void setLynxes(List<Lynx> lynxes2) {
-		lynxes = lynxes2;
+	/**
+	 * Carry on from a saved state (see Snapshot). The graph starts again.
+	 * 
+	 * @param readfile
+	 *          The file to load from.
+	 */
+	public void readFile(final String readfile) {
+		perform(new Runnable() {
+			public void run() {
+				try {
+					Snapshot.read(engine, Paths.get(readfile));
+					startedAgain();
+				} catch (Exception e) {
+					System.out.println("Something went wrong: " + e.getMessage());
+				}
+			}
+		});
 	}
 
 	// Perform an action when the mouse was clicked.
@@ -300,21 +489,14 @@ public class Simulator {
 	public void handleMouseClick(float mouseX, float mouseY) {
 		Location loc = view.gridLocationAt(mouseX, mouseY); // get grid at
 		// click.
-
-		for (int x = loc.getCol() - 8; x < loc.getCol() + 8; x++) {
-			for (int y = loc.getRow() - 8; y < loc.getRow() + 8; y++) {
-				Location locToCheck = new Location(x, y);
-				if (field.isInGrid(locToCheck)) {
-					Object animal = field.getObjectAt(locToCheck);
-					if (animal instanceof Animal)
-						animals.remove((Animal) animal);
-					if (animal instanceof Lynx)
-						lynxes.remove((Lynx) animal);
-					field.put(null, locToCheck);
-					updatedField.put(null, locToCheck);
-				}
+		if (loc == null)
+			return; // if off the screen, exit
+		final Location centre = loc;
+		perform(new Runnable() {
+			public void run() {
+				engine.clearArea(centre, 8);
 			}
-		}
+		});
 	}
 
 	private void handleMouseClick(Location l) {
@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the state of a simulation to a file and loads it back. A snapshot
+ * holds everything needed to carry on exactly where the saved run left off:
+ * the size and layout of the field, the step, the seed and tile size (which
+ * together fix every random stream the rest of the run will draw from),
+ * whether the run was stepped serially or tile by tile (which changes the
+ * order the animals act in), the parameters, and every animal's species,
+ * age, food level and cell.
+ *
+ * The file is a fixed-size header followed by one column per attribute, in
+ * slot order, all little-endian:
+ *
+ * <pre>
+ * int   magic, version
+ * int   width, height, layout
+ * long  seed
+ * int   step, tileSize, tiled (1 if stepped tile by tile), animals
+ * int   parameters
+ * double parameter[parameters], in the order of Parameters.names()
+ * byte  species[animals]
+ * int   age[animals]
+ * int   foodLevel[animals]
+ * long  cell[animals]
+ * </pre>
+ *
+ * The field itself is not stored: between steps every animal is on the
+ * field and nothing else is, so the board is rebuilt from the cell column.
+ * Columns are written through a file channel and read back by mapping the
+ * file a window at a time, so a snapshot costs little more than copying
+ * its bytes in either direction.
+ */
+public class Snapshot {
+
+	// Identifies a snapshot file: "FRSN".
+	private static final int MAGIC = 0x4E535246;
+
+	// The version of the format written.
+	static final int VERSION = 2;
+
+	// The size of the header, up to the parameters, in bytes.
+	private static final int HEADER_SIZE = 48;
+
+	// The size of the buffer columns are written through.
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// The most of the file mapped at once when reading.
+	private static final int MAX_WINDOW = 1 << 30;
+
+	// What a snapshot file holds.
+	private Population population;
+	private Field field;
+	private int step;
+	private long seed;
+	private int tileSize;
+	private boolean tiled;
+	private Parameters parameters;
+
+	private Snapshot() {
+	}
+
+	/**
+	 * Save the state of an engine between steps.
+	 *
+	 * @param engine
+	 *            The engine to save.
+	 * @param path
+	 *            The file to write. It is replaced if it exists.
+	 * @throws IOException
+	 *             If the file can't be written.
+	 */
+	public static void write(SimulationEngine engine, Path path)
+			throws IOException {
+		Population population = engine.getPopulation();
+		Field field = engine.getField();
+		int animals = population.size();
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION);
+			buffer.putInt(field.getWidth()).putInt(field.getHeight())
+					.putInt(field.getLayout());
+			buffer.putLong(engine.getSeed());
+			buffer.putInt(engine.getStep()).putInt(engine.getTileSize())
+					.putInt(engine.getThreads() > 1 ? 1 : 0).putInt(animals);
+			Parameters parameters = engine.getParameters();
+			String[] names = Parameters.names();
+			buffer.putInt(names.length);
+			for (String name : names) {
+				buffer.putDouble(parameters.get(name));
+			}
+			drain(channel, buffer);
+
+			byte[] species = population.speciesColumn();
+			for (int done = 0; done < animals;) {
+				int n = Math.min(animals - done, BUFFER_SIZE);
+				buffer.clear();
+				buffer.put(species, done, n);
+				drain(channel, buffer);
+				done += n;
+			}
+			writeInts(channel, buffer, population.ageColumn(), animals);
+			writeInts(channel, buffer, population.foodLevelColumn(), animals);
+			long[] cells = population.cellColumn();
+			for (int done = 0; done < animals;) {
+				int n = Math.min(animals - done, BUFFER_SIZE / 8);
+				buffer.clear();
+				buffer.asLongBuffer().put(cells, done, n);
+				buffer.position(n * 8);
+				drain(channel, buffer);
+				done += n;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Load a saved state into an engine, replacing its own, parameters and
+	 * all. If the saved run was stepped tile by tile and the engine runs on
+	 * one thread, or the other way round, the engine's number of threads is
+	 * changed to match (see SimulationEngine.restore).
+	 *
+	 * @param engine
+	 *            The engine to load into.
+	 * @param path
+	 *            The file to read.
+	 * @throws IOException
+	 *             If the file can't be read or isn't a snapshot this version
+	 *             understands.
+	 */
+	public static void read(SimulationEngine engine, Path path)
+			throws IOException {
+		Snapshot snapshot = load(path);
+		engine.restore(snapshot.population, snapshot.field, snapshot.step,
+				snapshot.seed, snapshot.tileSize, snapshot.tiled,
+				snapshot.parameters);
+	}
+
+	/**
+	 * Load just the field from a saved state.
+	 *
+	 * @param path
+	 *            The file to read.
+	 * @return The field as it was saved, with the animals' slots in it.
+	 * @throws IOException
+	 *             If the file can't be read or isn't a snapshot this version
+	 *             understands.
+	 */
+	static Field readField(Path path) throws IOException {
+		return load(path).field;
+	}
+
+	private static Snapshot load(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(path + " is not a snapshot");
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC) {
+				throw new IOException(path + " is not a snapshot");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException(path + " is a version " + version
+						+ " snapshot; only version " + VERSION
+						+ " can be read");
+			}
+			int width = header.getInt();
+			int height = header.getInt();
+			int layout = header.getInt();
+			long seed = header.getLong();
+			int step = header.getInt();
+			int tileSize = header.getInt();
+			int tiled = header.getInt();
+			int animals = header.getInt();
+			int parameterCount = header.getInt();
+			if (width < 1 || height < 1 || layout < Field.ROW_MAJOR
+					|| layout > Field.SPARSE || step < 0
+					|| tileSize < ParallelStep.MIN_TILE_SIZE || tiled < 0
+					|| tiled > 1 || animals < 0) {
+				throw new IOException(path + " has a corrupt header");
+			}
+			String[] names = Parameters.names();
+			if (parameterCount != names.length) {
+				throw new IOException(path + " holds " + parameterCount
+						+ " parameters, not " + names.length);
+			}
+			long columns = HEADER_SIZE + 8L * parameterCount;
+			if (channel.size() != columns + 17L * animals) {
+				throw new IOException(path + " should hold " + animals
+						+ " animals but is " + channel.size() + " bytes long");
+			}
+			Parameters parameters = new Parameters();
+			ByteBuffer values = map(channel, HEADER_SIZE, 8L * parameterCount);
+			try {
+				for (String name : names) {
+					parameters.set(name, values.getDouble());
+				}
+			} catch (IllegalArgumentException e) {
+				throw new IOException(path + " has a bad parameter", e);
+			}
+
+			int capacity = Math.max(animals, 1);
+			byte[] species = new byte[capacity];
+			int[] age = new int[capacity];
+			int[] foodLevel = new int[capacity];
+			long[] cells = new long[capacity];
+			long position = columns;
+			for (int done = 0; done < animals;) {
+				int n = Math.min(animals - done, MAX_WINDOW);
+				map(channel, position, n).get(species, done, n);
+				position += n;
+				done += n;
+			}
+			position = readInts(channel, position, age, animals);
+			position = readInts(channel, position, foodLevel, animals);
+			for (int done = 0; done < animals;) {
+				int n = Math.min(animals - done, MAX_WINDOW / 8);
+				map(channel, position, n * 8L).asLongBuffer().get(cells, done, n);
+				position += n * 8L;
+				done += n;
+			}
+
+			Snapshot snapshot = new Snapshot();
+			snapshot.field = Field.create(width, height, layout);
+			for (int slot = 0; slot < animals; slot++) {
+				long cell = cells[slot];
+				int col = Field.colOf(cell);
+				int row = Field.rowOf(cell);
+				if (col < 0 || col >= width || row < 0 || row >= height
+						|| species[slot] < 0
+						|| species[slot] >= Animal.SPECIES_COUNT) {
+					throw new IOException(path + " has a corrupt animal in slot "
+							+ slot);
+				}
+				if (!snapshot.field.isEmpty(col, row)) {
+					throw new IOException(path + " has two animals at " + col
+							+ "," + row);
+				}
+				snapshot.field.put(slot, species[slot], cell);
+			}
+			snapshot.population = new Population();
+			snapshot.population.restore(species, age, foodLevel, cells, animals);
+			snapshot.step = step;
+			snapshot.seed = seed;
+			snapshot.tileSize = tileSize;
+			snapshot.tiled = tiled == 1;
+			snapshot.parameters = parameters;
+			return snapshot;
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void writeInts(FileChannel channel, ByteBuffer buffer,
+			int[] values, int count) throws IOException {
+		for (int done = 0; done < count;) {
+			int n = Math.min(count - done, BUFFER_SIZE / 4);
+			buffer.clear();
+			buffer.asIntBuffer().put(values, done, n);
+			buffer.position(n * 4);
+			drain(channel, buffer);
+			done += n;
+		}
+	}
+
+	private static long readInts(FileChannel channel, long position,
+			int[] values, int count) throws IOException {
+		for (int done = 0; done < count;) {
+			int n = Math.min(count - done, MAX_WINDOW / 4);
+			map(channel, position, n * 4L).asIntBuffer().get(values, done, n);
+			position += n * 4L;
+			done += n;
+		}
+		return position;
+	}
+
+	/**
+	 * Write everything put in a buffer since it was cleared.
+	 */
+	private static void drain(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position,
+			long size) throws IOException {
+		MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+				position, size);
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		return map;
+	}
+}
@@ -0,0 +1,253 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A field for worlds far bigger than their population. Instead of a board
+ * with a position for every cell, the field is cut into square chunks, and a
+ * chunk is only allocated once an animal is put in it. Clearing the field
+ * keeps at most as many chunks for reuse as were in use before it, and lets
+ * the rest be collected, so memory follows the area the animals occupied
+ * in the last step rather than the most they ever did, or the area of the
+ * world. The only cost proportional to the area is the directory of
+ * chunks, one reference per chunk.
+ *
+ * Chunks left empty by remove() are kept until the next clear(): during a
+ * parallel step another tile may be about to write to the same chunk, so a
+ * chunk is only ever freed while nobody else is using the field. A new chunk
+ * is allocated under a lock; everything else is done without one, which is
+ * safe for the same reason the dense board is (see ParallelStep).
+ */
+public class SparseField extends Field {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The side of a chunk is 2 to the power of this */
+	static final int CHUNK_SHIFT = 5;
+
+	// The side of a chunk, in cells.
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	// Masks a column or row down to its position within a chunk.
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * The positions in one chunk of the field, stored a row at a time.
+	 */
+	private static final class Chunk implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		// One more than the slot of the animal at each position, so that
+		// zero means the position is empty.
+		final int[] board = new int[CHUNK_SIZE * CHUNK_SIZE];
+
+		// The species of the animal at each position. Only meaningful where
+		// the board is not zero.
+		final byte[] species = new byte[CHUNK_SIZE * CHUNK_SIZE];
+
+		// Where the chunk is in the directory.
+		int index;
+	}
+
+	// The number of chunks across the field.
+	private final int chunksAcross;
+
+	// The chunk covering each part of the field, or null if nothing has been
+	// put there since the field was last cleared. Chunk (cx, cy) is at index
+	// cy * chunksAcross + cx.
+	private final Chunk[] chunks;
+
+	// The chunks in use.
+	private final ArrayList<Chunk> live;
+
+	// Cleared chunks waiting to be used again, never more than were in use
+	// when the field was last cleared.
+	private final ArrayList<Chunk> pool;
+
+	/**
+	 * Represent a sparse field of the given dimensions.
+	 *
+	 * @param width
+	 *            The width of the field.
+	 * @param height
+	 *            The height of the field.
+	 */
+	public SparseField(int width, int height) {
+		super(width, height, false);
+		chunksAcross = (width + CHUNK_MASK) >>> CHUNK_SHIFT;
+		long count = (long) chunksAcross * ((height + CHUNK_MASK) >>> CHUNK_SHIFT);
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A field of " + width + "x"
+					+ height + " needs too many chunks");
+		}
+		chunks = new Chunk[(int) count];
+		live = new ArrayList<Chunk>();
+		pool = new ArrayList<Chunk>();
+	}
+
+	/**
+	 * Empty the field, freeing every chunk. The field is about to be filled
+	 * again with about as many animals as it held, so as many chunks as were
+	 * in use are kept to be used again; any more are dropped.
+	 */
+	public void clear() {
+		int keep = live.size();
+		for (int i = 0; i < live.size(); i++) {
+			Chunk chunk = live.get(i);
+			chunks[chunk.index] = null;
+			if (pool.size() < keep) {
+				Arrays.fill(chunk.board, 0);
+				pool.add(chunk);
+			}
+		}
+		live.clear();
+		// Chunks pooled by earlier clears that the last step didn't need.
+		while (pool.size() > keep) {
+			pool.remove(pool.size() - 1);
+		}
+	}
+
+	public int put(int slot, int species, int col, int row) {
+		int index = chunkIndex(col, row);
+		Chunk chunk = chunks[index];
+		if (chunk == null) {
+			chunk = allocate(index);
+		}
+		int position = position(col, row);
+		int previous = chunk.board[position] - 1;
+		chunk.board[position] = slot + 1;
+		chunk.species[position] = (byte) species;
+		return previous;
+	}
+
+	public void remove(int col, int row) {
+		Chunk chunk = chunks[chunkIndex(col, row)];
+		if (chunk != null) {
+			chunk.board[position(col, row)] = 0;
+		}
+	}
+
+	public int getOccupant(int col, int row) {
+		Chunk chunk = chunks[chunkIndex(col, row)];
+		return chunk == null ? EMPTY : chunk.board[position(col, row)] - 1;
+	}
+
+	public int getSpeciesAt(int col, int row) {
+		Chunk chunk = chunks[chunkIndex(col, row)];
+		if (chunk == null) {
+			return EMPTY;
+		}
+		int position = position(col, row);
+		return chunk.board[position] == 0 ? EMPTY : chunk.species[position];
+	}
+
+	boolean isEmpty(int col, int row) {
+		Chunk chunk = chunks[chunkIndex(col, row)];
+		return chunk == null || chunk.board[position(col, row)] == 0;
+	}
+
+	void countSpecies(int[] counts) {
+		for (int i = 0; i < live.size(); i++) {
+			Chunk chunk = live.get(i);
+			for (int position = 0; position < chunk.board.length; position++) {
+				if (chunk.board[position] != 0) {
+					counts[chunk.species[position]]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A sparse field keeps no bitboards, so this looks at each position.
+	 */
+	int speciesAround(int col, int row, int speciesMask) {
+		int around = 0;
+		int legal = legalAround(col, row);
+		for (int direction = 0; direction <= STAY; direction++) {
+			if ((legal & DIRECTION_BITS[direction]) != 0) {
+				int species = getSpeciesAt(col + COLUMN_CHANGES[direction], row
+						+ ROW_CHANGES[direction]);
+				if (species != EMPTY && (speciesMask & 1 << species) != 0) {
+					around |= DIRECTION_BITS[direction];
+				}
+			}
+		}
+		return around;
+	}
+
+	int occupiedAround(int col, int row) {
+		return speciesAround(col, row, (1 << Animal.SPECIES_COUNT) - 1)
+				| 0x1FF & ~legalAround(col, row);
+	}
+
+	/**
+	 * Chunks that haven't been allocated are certainly empty, so a look
+	 * jumps across them.
+	 */
+	int distance(int column, int row, int direction) {
+		int columnDelta = COLUMN_CHANGES[direction];
+		int rowDelta = ROW_CHANGES[direction];
+		if (columnDelta == 0 && rowDelta == 0) {
+			throw new IllegalArgumentException("Can't look in direction "
+					+ direction);
+		}
+
+		int steps = 1;
+		column += columnDelta;
+		row += rowDelta;
+		while (isLegalLocation(column, row)) {
+			int jump = 1;
+			if (chunks[chunkIndex(column, row)] == null) {
+				jump = Math.min(stepsOut(column, columnDelta, CHUNK_SHIFT),
+						stepsOut(row, rowDelta, CHUNK_SHIFT));
+				jump = Math.min(jump, Math.min(
+						stepsOff(column, columnDelta, getWidth()),
+						stepsOff(row, rowDelta, getHeight())));
+			} else if (!isEmpty(column, row)) {
+				return steps;
+			}
+			column += columnDelta * jump;
+			row += rowDelta * jump;
+			steps += jump;
+		}
+		return steps;
+	}
+
+	public int getLayout() {
+		return SPARSE;
+	}
+
+	/**
+	 * @return The number of chunks in use.
+	 */
+	public int getChunkCount() {
+		return live.size();
+	}
+
+	/**
+	 * Get the chunk at a place in the directory, allocating it if no other
+	 * thread has done so first.
+	 */
+	private synchronized Chunk allocate(int index) {
+		Chunk chunk = chunks[index];
+		if (chunk == null) {
+			if (pool.isEmpty()) {
+				chunk = new Chunk();
+			} else {
+				chunk = pool.remove(pool.size() - 1);
+			}
+			chunk.index = index;
+			live.add(chunk);
+			chunks[index] = chunk;
+		}
+		return chunk;
+	}
+
+	private int chunkIndex(int col, int row) {
+		return (row >>> CHUNK_SHIFT) * chunksAcross + (col >>> CHUNK_SHIFT);
+	}
+
+	private static int position(int col, int row) {
+		return ((row & CHUNK_MASK) << CHUNK_SHIFT) | (col & CHUNK_MASK);
+	}
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Everything an animal needs while it acts during a step: the population and
+ * its parameters, the current and updated fields, a random stream, and
+ * somewhere to put its young. A serial step uses one context for the whole
+ * field; a parallel step uses one per tile, so that tiles running at the
+ * same time share no mutable state apart from animals and cells that only
+ * one of them can reach.
+ *
+ * Newborns are not added to the population straight away, since that would
+ * need a lock. They are kept in the context's nursery and put on the updated
+ * field under a pending occupant (see Field.pendingOccupant), which keeps the
+ * cell taken for the rest of the step. merge() then gives them real slots,
+ * in the order they were born. Deaths, by species and by cause, and moves
+ * are tallied the same way, and applied to the population's counts by
+ * merge(). While anyone is following the EventStream, every birth and
+ * death is also kept as an event and handed to the stream by merge().
+ */
+public class StepContext {
+
+	// The capacity of a new nursery. Most tiles see only a few births.
+	private static final int NURSERY_CAPACITY = 16;
+
+	/** The animals of the simulation */
+	final Population population;
+	/** The parameters of the simulation */
+	final Parameters parameters;
+	/** The field as it was at the start of the step */
+	Field currentField;
+	/** The field being built for the end of the step */
+	Field updatedField;
+	/** The random stream for this part of the step */
+	SplittableRandom rand;
+
+	// Animals born during this part of the step, waiting for a slot.
+	private final Population nursery;
+
+	// The number of animals of each species killed since the last merge, the
+	// number killed by each cause, and the number that moved to a new cell.
+	private final int[] deaths;
+	private final int[] causeDeaths;
+	private int moves;
+
+	// Where the events of the step go, or null if nobody wants them, the
+	// step they happen in, and those seen since the last merge: pairs of
+	// header and cell (see EventStream).
+	private EventStream events;
+	private int eventStep;
+	private long[] eventBuffer = new long[0];
+	private int eventCount;
+
+	/**
+	 * Create a context for acting on a population.
+	 *
+	 * @param population
+	 *            The animals of the simulation.
+	 * @param parameters
+	 *            The parameters of the simulation.
+	 */
+	public StepContext(Population population, Parameters parameters) {
+		this.population = population;
+		this.parameters = parameters;
+		this.nursery = new Population(NURSERY_CAPACITY);
+		this.deaths = new int[Animal.SPECIES_COUNT];
+		this.causeDeaths = new int[Animal.CAUSE_COUNT];
+	}
+
+	/**
+	 * Get ready for a new part of a step.
+	 *
+	 * @param currentField
+	 *            The field as it was at the start of the step.
+	 * @param updatedField
+	 *            The field being built for the end of the step.
+	 * @param rand
+	 *            The random stream to use.
+	 */
+	void begin(Field currentField, Field updatedField, SplittableRandom rand) {
+		this.currentField = currentField;
+		this.updatedField = updatedField;
+		this.rand = rand;
+	}
+
+	/**
+	 * Record the births and deaths of a step as events, or stop recording
+	 * them.
+	 *
+	 * @param events
+	 *            The stream to hand them to at each merge, or null for none.
+	 * @param step
+	 *            The number of the step.
+	 */
+	void recordEvents(EventStream events, int step) {
+		this.events = events;
+		this.eventStep = step;
+	}
+
+	/**
+	 * Kill an animal, if it is still alive.
+	 *
+	 * @param slot
+	 *            The slot of the animal.
+	 * @param cause
+	 *            What killed it, e.g. Animal.OLD_AGE.
+	 */
+	void kill(int slot, int cause) {
+		if (population.markDead(slot)) {
+			deaths[population.getSpecies(slot)]++;
+			causeDeaths[cause]++;
+			if (events != null) {
+				note(cause, population.getSpecies(slot), population.getCell(slot));
+			}
+		}
+	}
+
+	/**
+	 * Move an animal to a cell of the updated field. Whatever was already at
+	 * the cell is lost, and dies.
+	 *
+	 * @param slot
+	 *            The slot of the animal.
+	 * @param cell
+	 *            The packed cell to move it to.
+	 */
+	void place(int slot, long cell) {
+		if (population.getCell(slot) != cell) {
+			moves++;
+		}
+		population.setCell(slot, cell);
+		lose(updatedField.put(slot, population.getSpecies(slot), cell), slot);
+	}
+
+	/**
+	 * Give birth to an animal in a cell of the updated field. Whatever was
+	 * already at the cell is lost, and dies.
+	 *
+	 * @param species
+	 *            The species of the newborn.
+	 * @param foodLevel
+	 *            Its food level.
+	 * @param cell
+	 *            The packed cell it is born into.
+	 */
+	void bear(int species, int foodLevel, long cell) {
+		int pending = Field.pendingOccupant(nursery.size());
+		lose(updatedField.put(pending, species, cell), pending);
+		nursery.add(species, 0, foodLevel, cell);
+	}
+
+	/**
+	 * Give the animals born since the last merge their slots in the
+	 * population, and bring the population's counts up to date.
+	 */
+	void merge() {
+		for (int i = 0; i < nursery.size(); i++) {
+			if (nursery.isAlive(i)) {
+				int species = nursery.getSpecies(i);
+				long cell = nursery.getCell(i);
+				int slot = population.addNewborn(species, nursery.getFoodLevel(i), cell);
+				updatedField.put(slot, species, cell);
+				if (events != null) {
+					note(EventStream.BIRTH, species, cell);
+				}
+			}
+		}
+		nursery.clear();
+		for (int species = 0; species < deaths.length; species++) {
+			population.recordDeaths(species, deaths[species]);
+			deaths[species] = 0;
+		}
+		population.recordCauses(causeDeaths, moves);
+		Arrays.fill(causeDeaths, 0);
+		moves = 0;
+		if (events != null) {
+			events.publish(eventBuffer, eventCount);
+		}
+		eventCount = 0;
+	}
+
+	/**
+	 * Keep an event until the next merge.
+	 */
+	private void note(int kind, int species, long cell) {
+		if (2 * eventCount == eventBuffer.length) {
+			eventBuffer = Arrays.copyOf(eventBuffer,
+					Math.max(2 * NURSERY_CAPACITY, 2 * eventBuffer.length));
+		}
+		eventBuffer[2 * eventCount] = EventStream.header(eventStep, kind,
+				species);
+		eventBuffer[2 * eventCount + 1] = cell;
+		eventCount++;
+	}
+
+	/**
+	 * Deal with an occupant that has just been pushed off a cell.
+	 */
+	private void lose(int lost, int placed) {
+		if (lost == Field.EMPTY || lost == placed) {
+			return;
+		}
+		if (Field.isPending(lost)) {
+			nursery.markDead(Field.pendingIndex(lost));
+		} else {
+			kill(lost, Animal.OVERCROWDING);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+/**
+ * Something that wants to follow a simulation as it runs, e.g. a graph of
+ * the populations or a log. Listeners are told about every completed step
+ * of the {@link SimulationEngine} they are registered with.
+ */
+public interface StepListener {
+
+	/**
+	 * Called after the engine has finished a step and swapped its fields.
+	 *
+	 * @param engine
+	 *            The engine that completed the step.
+	 */
+	void stepCompleted(SimulationEngine engine);
+}
@@ -0,0 +1,403 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Where the time of each step goes, and what happened in it: the time spent
+ * in each phase of the step, and the births, deaths by cause, moves and
+ * bytes allocated. An engine only measures itself while it has metrics
+ * (see SimulationEngine.setMetrics); without them a step makes a handful
+ * of null checks and nothing else, so the metrics can be switched on and
+ * off in a running simulation.
+ *
+ * The phases of a step are timed on the thread stepping the engine,
+ * against a running mark, so each phase costs one read of the clock.
+ * What happened in a step is found from how far the population's running
+ * totals moved during it. Both are kept in plain arrays during the step and
+ * published under the metrics' lock once it ends, so the step never waits
+ * for anyone reading them, and readers see whole steps. Drawing happens on
+ * the window's thread, between steps; its phases are added as they finish.
+ *
+ * The metrics can be registered as an MBean, to be watched in JConsole or
+ * any JMX client, and can print a line describing the steps every
+ * logInterval steps.
+ */
+public class StepMetrics implements StepMetricsMBean {
+
+	/** Phase: the first pass of a step, in which rabbits and foxes act */
+	public static final int ACT = 0;
+	/** Phase: the second pass, in which lynxes hunt (ACT + 1) */
+	public static final int HUNT = 1;
+	/** Phase: giving newborns their slots and dropping the dead */
+	public static final int MERGE = 2;
+	/** Phase: swapping the fields and clearing the old one */
+	public static final int SWAP = 3;
+	/** Phase: telling the step listeners, e.g. the graph, logs and frames */
+	public static final int LISTENERS = 4;
+	/** Phase: counting the populations to see if the run is viable */
+	public static final int COUNT = 5;
+	/** Phase: plotting a frame on the graph, on the window's thread */
+	public static final int GRAPH = 6;
+	/** Phase: drawing the field and the graph, on the window's thread */
+	public static final int DRAW = 7;
+	/** The number of phases */
+	public static final int PHASE_COUNT = 8;
+
+	// The name of each phase.
+	private static final String[] PHASE_NAMES = { "act", "hunt", "merge",
+			"swap", "listeners", "count", "graph", "draw" };
+
+	// Counts the bytes each thread allocates, or null if the JVM can't.
+	private static final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+	// The step in progress, only touched by the stepping thread.
+	private final long[] stepNanos = new long[PHASE_COUNT];
+	private long mark;
+	private long allocatedAtStart;
+
+	// The population's running totals at the end of the last step, and
+	// which population and clear (see Population.getClears) they were of.
+	private Population population;
+	private int clears;
+	private long lastBirthTotal;
+	private final long[] lastDeathTotals = new long[Animal.CAUSE_COUNT];
+	private long lastMoveTotal;
+
+	// What has been published, guarded by the metrics' lock. The last
+	// step, the totals since reset() and the totals since the last log line.
+	private long steps, intervalSteps;
+	private final long[] lastNanos = new long[PHASE_COUNT];
+	private final long[] totalNanos = new long[PHASE_COUNT];
+	private final long[] intervalNanos = new long[PHASE_COUNT];
+	private long lastBirths, totalBirths, intervalBirths;
+	private final long[] lastDeaths = new long[Animal.CAUSE_COUNT];
+	private final long[] totalDeaths = new long[Animal.CAUSE_COUNT];
+	private final long[] intervalDeaths = new long[Animal.CAUSE_COUNT];
+	private long lastMoves, totalMoves, intervalMoves;
+	private long lastAllocated, totalAllocated, intervalAllocated;
+	private int lastStep;
+
+	// Print a line every this many steps, or never if zero.
+	private volatile int logInterval;
+
+	// The name the metrics are registered under, if they are.
+	private ObjectName name;
+
+	/**
+	 * Create metrics that print nothing.
+	 */
+	public StepMetrics() {
+		this(0);
+	}
+
+	/**
+	 * Create metrics that print a line every so often.
+	 *
+	 * @param logInterval
+	 *            The number of steps between lines, or 0 for none.
+	 */
+	public StepMetrics(int logInterval) {
+		setLogInterval(logInterval);
+	}
+
+	/**
+	 * Start timing a step. Called by the engine.
+	 *
+	 * @param engine
+	 *            The engine about to make the step.
+	 */
+	void stepStarted(SimulationEngine engine) {
+		// If the engine has a population these metrics haven't followed
+		// yet, or it has been cleared since the last step, count from where
+		// its totals stand now: a run picked up part way through isn't
+		// charged with its whole history.
+		Population population = engine.getPopulation();
+		if (population != this.population
+				|| population.getClears() != clears) {
+			this.population = population;
+			clears = population.getClears();
+			lastBirthTotal = birthTotal(population);
+			for (int cause = 0; cause < Animal.CAUSE_COUNT; cause++) {
+				lastDeathTotals[cause] = population.getDeathsFrom(cause);
+			}
+			lastMoveTotal = population.getMoves();
+		}
+		Arrays.fill(stepNanos, 0);
+		if (threads != null) {
+			allocatedAtStart = threads.getThreadAllocatedBytes(Thread
+					.currentThread().getId());
+		}
+		mark = System.nanoTime();
+	}
+
+	/**
+	 * Charge the time since the last phase ended to a phase of the step in
+	 * progress. Called by the engine.
+	 *
+	 * @param phase
+	 *            The phase that has just ended.
+	 */
+	void phaseEnded(int phase) {
+		long now = System.nanoTime();
+		stepNanos[phase] += now - mark;
+		mark = now;
+	}
+
+	/**
+	 * Finish timing a step, and publish it. Called by the engine.
+	 *
+	 * @param engine
+	 *            The engine that made the step.
+	 */
+	void stepEnded(SimulationEngine engine) {
+		long allocated = -1;
+		if (threads != null) {
+			allocated = threads.getThreadAllocatedBytes(Thread.currentThread()
+					.getId()) - allocatedAtStart;
+		}
+
+		// What happened, from how far the population's totals moved.
+		Population population = this.population;
+		long birthTotal = birthTotal(population);
+		long births = birthTotal - lastBirthTotal;
+		lastBirthTotal = birthTotal;
+		long moves = population.getMoves() - lastMoveTotal;
+		lastMoveTotal = population.getMoves();
+
+		String line = null;
+		synchronized (this) {
+			steps++;
+			intervalSteps++;
+			lastStep = engine.getStep();
+			for (int phase = 0; phase < LISTENERS + 1; phase++) {
+				lastNanos[phase] = stepNanos[phase];
+				totalNanos[phase] += stepNanos[phase];
+				intervalNanos[phase] += stepNanos[phase];
+			}
+			lastBirths = births;
+			totalBirths += births;
+			intervalBirths += births;
+			for (int cause = 0; cause < Animal.CAUSE_COUNT; cause++) {
+				long total = population.getDeathsFrom(cause);
+				lastDeaths[cause] = total - lastDeathTotals[cause];
+				lastDeathTotals[cause] = total;
+				totalDeaths[cause] += lastDeaths[cause];
+				intervalDeaths[cause] += lastDeaths[cause];
+			}
+			lastMoves = moves;
+			totalMoves += moves;
+			intervalMoves += moves;
+			lastAllocated = allocated;
+			if (allocated >= 0) {
+				totalAllocated += allocated;
+				intervalAllocated += allocated;
+			}
+			int interval = logInterval;
+			if (interval > 0 && intervalSteps >= interval) {
+				line = getSummary();
+				startInterval();
+			}
+		}
+		if (line != null) {
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Add the time of a phase that isn't part of a step, e.g. drawing.
+	 *
+	 * @param phase
+	 *            The phase.
+	 * @param nanos
+	 *            How long it took.
+	 */
+	public synchronized void record(int phase, long nanos) {
+		lastNanos[phase] = nanos;
+		totalNanos[phase] += nanos;
+		intervalNanos[phase] += nanos;
+	}
+
+	/**
+	 * Register the metrics with the platform's MBean server, as
+	 * FoxesAndRabbits:type=StepMetrics,name=name.
+	 *
+	 * @param name
+	 *            The name to tell these metrics apart from others.
+	 * @throws JMException
+	 *             If they can't be registered, e.g. because the name is taken.
+	 */
+	public synchronized void register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("FoxesAndRabbits:type=StepMetrics,name="
+				+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		this.name = objectName;
+	}
+
+	/**
+	 * Remove the metrics from the MBean server, if they are registered.
+	 *
+	 * @throws JMException
+	 *             If they can't be removed.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	public String[] getPhaseNames() {
+		return PHASE_NAMES.clone();
+	}
+
+	public String[] getCauseNames() {
+		String[] names = new String[Animal.CAUSE_COUNT];
+		for (int cause = 0; cause < names.length; cause++) {
+			names[cause] = Animal.causeName(cause);
+		}
+		return names;
+	}
+
+	public synchronized long getSteps() {
+		return steps;
+	}
+
+	public synchronized long[] getLastStepNanos() {
+		return lastNanos.clone();
+	}
+
+	public synchronized long[] getTotalNanos() {
+		return totalNanos.clone();
+	}
+
+	public synchronized double[] getMeanNanos() {
+		double[] means = new double[PHASE_COUNT];
+		for (int phase = 0; phase < PHASE_COUNT; phase++) {
+			means[phase] = steps == 0 ? 0 : (double) totalNanos[phase] / steps;
+		}
+		return means;
+	}
+
+	public synchronized long getLastBirths() {
+		return lastBirths;
+	}
+
+	public synchronized long[] getLastDeaths() {
+		return lastDeaths.clone();
+	}
+
+	public synchronized long getLastMoves() {
+		return lastMoves;
+	}
+
+	public synchronized long getLastAllocatedBytes() {
+		return lastAllocated;
+	}
+
+	public synchronized long getTotalBirths() {
+		return totalBirths;
+	}
+
+	public synchronized long[] getTotalDeaths() {
+		return totalDeaths.clone();
+	}
+
+	public synchronized long getTotalMoves() {
+		return totalMoves;
+	}
+
+	public synchronized long getTotalAllocatedBytes() {
+		return threads == null ? -1 : totalAllocated;
+	}
+
+	public int getLogInterval() {
+		return logInterval;
+	}
+
+	public void setLogInterval(int steps) {
+		if (steps < 0) {
+			throw new IllegalArgumentException("Log interval " + steps
+					+ " is negative");
+		}
+		logInterval = steps;
+	}
+
+	/**
+	 * @return The step reached, the mean time of each phase per step and
+	 *         the mean births, deaths, moves and allocation per step, over
+	 *         the steps since the last log line.
+	 */
+	public synchronized String getSummary() {
+		long n = Math.max(1, intervalSteps);
+		long stepTotal = 0;
+		for (int phase = 0; phase <= LISTENERS; phase++) {
+			stepTotal += intervalNanos[phase];
+		}
+		StringBuilder s = new StringBuilder();
+		s.append("step ").append(lastStep).append(": ")
+				.append(String.format("%.3f", stepTotal / 1e6 / n))
+				.append(" ms/step (");
+		for (int phase = 0; phase < PHASE_COUNT; phase++) {
+			if (phase > 0) {
+				s.append(", ");
+			}
+			s.append(PHASE_NAMES[phase]).append(' ').append(
+					String.format("%.3f", intervalNanos[phase] / 1e6 / n));
+		}
+		s.append("), births ").append(intervalBirths / n);
+		for (int cause = 0; cause < Animal.CAUSE_COUNT; cause++) {
+			s.append(", ").append(Animal.causeName(cause)).append(' ')
+					.append(intervalDeaths[cause] / n);
+		}
+		s.append(", moves ").append(intervalMoves / n);
+		if (threads != null) {
+			s.append(", allocated ").append(intervalAllocated / n).append(" B");
+		}
+		s.append(" per step over ").append(intervalSteps).append(" steps");
+		return s.toString();
+	}
+
+	public synchronized void reset() {
+		steps = 0;
+		Arrays.fill(lastNanos, 0);
+		Arrays.fill(totalNanos, 0);
+		lastBirths = totalBirths = 0;
+		Arrays.fill(lastDeaths, 0);
+		Arrays.fill(totalDeaths, 0);
+		lastMoves = totalMoves = 0;
+		lastAllocated = totalAllocated = 0;
+		startInterval();
+	}
+
+	private void startInterval() {
+		intervalSteps = 0;
+		Arrays.fill(intervalNanos, 0);
+		intervalBirths = 0;
+		Arrays.fill(intervalDeaths, 0);
+		intervalMoves = 0;
+		intervalAllocated = 0;
+	}
+
+	private static long birthTotal(Population population) {
+		long total = 0;
+		for (int species = 0; species < Animal.SPECIES_COUNT; species++) {
+			total += population.getBirths(species);
+		}
+		return total;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()) {
+				threads.setThreadAllocatedMemoryEnabled(true);
+				return threads;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * What StepMetrics shows through JMX, e.g. in JConsole. Times are in
+ * nanoseconds; arrays of phases are in the order of getPhaseNames(), and
+ * arrays of causes in the order of getCauseNames().
+ */
+public interface StepMetricsMBean {
+
+	/** @return The name of each phase timed */
+	String[] getPhaseNames();
+
+	/** @return The name of each cause of death counted */
+	String[] getCauseNames();
+
+	/** @return The number of steps measured since the last reset */
+	long getSteps();
+
+	/** @return The time spent in each phase of the last step */
+	long[] getLastStepNanos();
+
+	/** @return The time spent in each phase since the last reset */
+	long[] getTotalNanos();
+
+	/** @return The mean time spent in each phase per step */
+	double[] getMeanNanos();
+
+	/** @return The births in the last step */
+	long getLastBirths();
+
+	/** @return The deaths from each cause in the last step */
+	long[] getLastDeaths();
+
+	/** @return The moves in the last step */
+	long getLastMoves();
+
+	/** @return The bytes allocated by the stepping thread in the last step,
+	 *          or -1 if the JVM can't tell */
+	long getLastAllocatedBytes();
+
+	/** @return The births since the last reset */
+	long getTotalBirths();
+
+	/** @return The deaths from each cause since the last reset */
+	long[] getTotalDeaths();
+
+	/** @return The moves since the last reset */
+	long getTotalMoves();
+
+	/** @return The bytes allocated by the stepping thread since the last
+	 *          reset, or -1 if the JVM can't tell */
+	long getTotalAllocatedBytes();
+
+	/** @return The number of steps between log lines, or 0 for none */
+	int getLogInterval();
+
+	/** @param steps The number of steps between log lines, or 0 for none */
+	void setLogInterval(int steps);
+
+	/** @return One line describing the steps since the last log line */
+	String getSummary();
+
+	/** Start every total again from zero */
+	void reset();
+}
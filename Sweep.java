@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Chooses the points of a parameter sweep: sets of Parameters that differ
+ * from a base set in the parameters being swept, each over a range of its
+ * own (an Axis). The points can be a full grid, every combination of a
+ * number of evenly spaced values on each axis, or a Latin hypercube sample,
+ * which covers many axes with far fewer points: the range of every axis is
+ * cut into as many strata as there are points, and each stratum of each
+ * axis gets exactly one point.
+ *
+ * runs() turns the points into the runs of an ensemble, one per point and
+ * seed, which a ResultCache can then run, skipping those it already has.
+ */
+public class Sweep {
+
+	/**
+	 * A parameter to sweep, and the range to sweep it over.
+	 */
+	public static class Axis {
+		private final String name;
+		private final double min, max;
+		private final int points;
+
+		/**
+		 * @param name
+		 *            The name of the parameter (see Parameters).
+		 * @param min
+		 *            The lowest value to try.
+		 * @param max
+		 *            The highest value to try.
+		 * @param points
+		 *            The number of values to try in a grid, including min
+		 *            and max. Must be greater than zero; with one, only min is
+		 *            tried.
+		 */
+		public Axis(String name, double min, double max, int points) {
+			if (points < 1) {
+				throw new IllegalArgumentException("Need at least one point, not "
+						+ points);
+			}
+			this.name = name;
+			this.min = min;
+			this.max = max;
+			this.points = points;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The value of a grid point along the axis.
+		 */
+		double valueAt(int point) {
+			return points == 1 ? min : min + (max - min) * point / (points - 1);
+		}
+	}
+
+	// The values of the parameters that aren't swept.
+	private final Parameters base;
+
+	// The parameters that are.
+	private final List<Axis> axes = new ArrayList<Axis>();
+
+	/**
+	 * Start a sweep around some parameters.
+	 *
+	 * @param base
+	 *            The values of every parameter not swept. The sweep keeps a
+	 *            copy.
+	 */
+	public Sweep(Parameters base) {
+		this.base = new Parameters(base);
+	}
+
+	/**
+	 * Sweep a parameter.
+	 *
+	 * @param axis
+	 *            The parameter and the range to sweep it over.
+	 */
+	public void addAxis(Axis axis) {
+		// Fail now, rather than part way through a sweep.
+		base.get(axis.getName());
+		axes.add(axis);
+	}
+
+	public List<Axis> getAxes() {
+		return axes;
+	}
+
+	/**
+	 * @return Every combination of the grid values of the axes, the first
+	 *         axis changing slowest.
+	 */
+	public List<Parameters> grid() {
+		List<Parameters> points = new ArrayList<Parameters>();
+		int[] index = new int[axes.size()];
+		while (true) {
+			Parameters point = new Parameters(base);
+			for (int a = 0; a < axes.size(); a++) {
+				point.set(axes.get(a).getName(), axes.get(a).valueAt(index[a]));
+			}
+			points.add(point);
+			// Count up, last axis fastest.
+			int a = axes.size() - 1;
+			while (a >= 0 && ++index[a] == axes.get(a).points) {
+				index[a] = 0;
+				a--;
+			}
+			if (a < 0) {
+				return points;
+			}
+		}
+	}
+
+	/**
+	 * Take a Latin hypercube sample of the axes' ranges. The same seed gives
+	 * the same points.
+	 *
+	 * @param samples
+	 *            The number of points. Must be greater than zero.
+	 * @param seed
+	 *            The seed that places them.
+	 * @return The points.
+	 */
+	public List<Parameters> latinHypercube(int samples, long seed) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("Need at least one sample, not "
+					+ samples);
+		}
+		SplittableRandom rand = new SplittableRandom(seed);
+		List<Parameters> points = new ArrayList<Parameters>();
+		for (int i = 0; i < samples; i++) {
+			points.add(new Parameters(base));
+		}
+		int[] strata = new int[samples];
+		for (Axis axis : axes) {
+			for (int i = 0; i < samples; i++) {
+				strata[i] = i;
+			}
+			for (int i = samples - 1; i > 0; i--) {
+				int j = rand.nextInt(i + 1);
+				int swap = strata[i];
+				strata[i] = strata[j];
+				strata[j] = swap;
+			}
+			for (int i = 0; i < samples; i++) {
+				double u = (strata[i] + rand.nextDouble()) / samples;
+				points.get(i).set(axis.getName(),
+						axis.min + (axis.max - axis.min) * u);
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * Make the runs of a sweep: every point with every seed.
+	 *
+	 * @param points
+	 *            The parameters to run with.
+	 * @param width
+	 *            Width of the field.
+	 * @param height
+	 *            Height of the field.
+	 * @param firstSeed
+	 *            The first seed; each point is run with the seeds from this
+	 *            one up.
+	 * @param seeds
+	 *            The number of seeds to run each point with.
+	 * @param steps
+	 *            The most steps for each run.
+	 * @return The runs, point by point.
+	 */
+	public static List<Ensemble.Run> runs(List<Parameters> points, int width,
+			int height, long firstSeed, int seeds, int steps) {
+		List<Ensemble.Run> runs = new ArrayList<Ensemble.Run>();
+		for (Parameters point : points) {
+			for (int i = 0; i < seeds; i++) {
+				runs.add(new Ensemble.Run(width, height, firstSeed + i,
+						Field.DEFAULT_LAYOUT, steps, point));
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * Run a sweep from the command line and print the outcomes at each
+	 * point.
+	 *
+	 * Options: -axis name:min:max:points (any number of times), -lhs n (take
+	 * n Latin hypercube samples rather than the grid), -sampleSeed s, -seeds
+	 * n, -seed first, -size WxH, -steps n, -threads n and -cache dir.
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		Sweep sweep = new Sweep(new Parameters());
+		int samples = 0;
+		long sampleSeed = 1;
+		int seeds = 10;
+		long firstSeed = 1;
+		int width = 100, height = 100;
+		int steps = 1000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String cache = "sweep-cache";
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-axis")) {
+				String[] parts = value.split(":");
+				sweep.addAxis(new Axis(parts[0], Double.parseDouble(parts[1]),
+						Double.parseDouble(parts[2]), Integer.parseInt(parts[3])));
+			} else if (args[i].equals("-lhs")) {
+				samples = Integer.parseInt(value);
+			} else if (args[i].equals("-sampleSeed")) {
+				sampleSeed = Long.parseLong(value);
+			} else if (args[i].equals("-seeds")) {
+				seeds = Integer.parseInt(value);
+			} else if (args[i].equals("-seed")) {
+				firstSeed = Long.parseLong(value);
+			} else if (args[i].equals("-size")) {
+				String[] dims = value.split("x");
+				width = Integer.parseInt(dims[0]);
+				height = Integer.parseInt(dims[1]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(value);
+			} else if (args[i].equals("-threads")) {
+				threads = Integer.parseInt(value);
+			} else if (args[i].equals("-cache")) {
+				cache = value;
+			} else {
+				System.out.println("Unknown option " + args[i]);
+				return;
+			}
+		}
+
+		List<Parameters> points = samples > 0 ? sweep.latinHypercube(samples,
+				sampleSeed) : sweep.grid();
+		final Map<Parameters, Ensemble.Outcomes> outcomes = new LinkedHashMap<Parameters, Ensemble.Outcomes>();
+		for (Parameters point : points) {
+			outcomes.put(point, new Ensemble.Outcomes());
+		}
+		ResultCache results = new ResultCache(Paths.get(cache));
+		Ensemble ensemble = new Ensemble(threads);
+		int ran;
+		try {
+			ran = results.run(ensemble, runs(points, width, height, firstSeed,
+					seeds, steps), new Ensemble.Aggregator() {
+				public void runCompleted(Ensemble.Summary summary) {
+					outcomes.get(summary.getRun().getParameters())
+							.runCompleted(summary);
+				}
+			});
+		} finally {
+			ensemble.shutdown();
+		}
+
+		for (Map.Entry<Parameters, Ensemble.Outcomes> entry : outcomes
+				.entrySet()) {
+			StringBuilder line = new StringBuilder();
+			for (Axis axis : sweep.getAxes()) {
+				line.append(axis.getName()).append('=')
+						.append(entry.getKey().get(axis.getName())).append(' ');
+			}
+			System.out.println(line.append(entry.getValue()));
+		}
+		System.out.println(ran + " of " + points.size() * seeds
+				+ " runs weren't in the cache");
+	}
+}